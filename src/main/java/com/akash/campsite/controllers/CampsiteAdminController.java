@@ -0,0 +1,112 @@
+package com.akash.campsite.controllers;
+
+import com.akash.campsite.pojo.SlowRequest;
+import com.akash.campsite.service.BackupFormat;
+import com.akash.campsite.service.BookingBackupService;
+import com.akash.campsite.service.CampsiteService;
+import com.akash.campsite.service.SlowRequestLog;
+import org.hibernate.HibernateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * REST controller for administrative operations.
+ */
+@RestController
+@RequestMapping(value = "/campsite/admin")
+public class CampsiteAdminController {
+
+    @Autowired
+    private BookingBackupService bookingBackupService;
+
+    @Autowired
+    private CampsiteService campsiteService;
+
+    @Autowired
+    private SlowRequestLog slowRequestLog;
+
+    /**
+     * Rest endpoint for exporting every Booking, one per line, as csv (default) or ndjson. The response is streamed
+     * while the Bookings are read from the database. A 400 is returned if the format is not supported.
+     *
+     * @param format    csv or ndjson
+     *
+     * @return          ResponseEntity with the appropriate status code and content
+     */
+    @GetMapping(value = "/bookings/export")
+    public ResponseEntity<StreamingResponseBody> exportBookings(@RequestParam(value = "format", required = false) String format) {
+        final BackupFormat backupFormat;
+        try {
+            backupFormat = BackupFormat.fromString(format);
+        }
+        catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(outputStream -> outputStream.write(e.getMessage().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return ResponseEntity.status(HttpStatus.OK)
+                .contentType(MediaType.parseMediaType(backupFormat.getContentType()))
+                .body(outputStream -> bookingBackupService.exportBookings(outputStream, backupFormat));
+    }
+
+    /**
+     * Rest endpoint for importing Bookings, e.g. to restore past Bookings from a backup created by the export endpoint.
+     * The request body is read as a stream, one Booking per line. A 200 is returned with the number of Bookings imported
+     * and the throughput. A 400 is returned if a line is invalid or if the Bookings could not be inserted.
+     *
+     * @param format    csv or ndjson
+     * @param request   Request whose body contains the Bookings
+     *
+     * @return          ResponseEntity with the appropriate status code and content
+     */
+    @PostMapping(value = "/bookings/import")
+    public ResponseEntity<String> importBookings(@RequestParam(value = "format", required = false) String format, HttpServletRequest request) {
+        ResponseEntity<String> responseEntity;
+        try {
+            final String summary = bookingBackupService.importBookings(request.getInputStream(), BackupFormat.fromString(format));
+            responseEntity = ResponseEntity.status(HttpStatus.OK).body(summary);
+        }
+        catch (HibernateException | IllegalArgumentException | IOException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Rest endpoint for claiming the nights of the Bookings made before the CAMPSITE_NIGHTS table existed, to run once
+     * after upgrading the database. A 200 is returned with the number of nights claimed. A 400 is returned if the nights
+     * could not be claimed, e.g. when two Bookings overlap.
+     *
+     * @return  ResponseEntity with the appropriate status code and content
+     */
+    @PostMapping(value = "/nights/backfill")
+    public ResponseEntity<String> backfillNights() {
+        ResponseEntity<String> responseEntity;
+        try {
+            responseEntity = ResponseEntity.status(HttpStatus.OK).body(campsiteService.backfillNights());
+        }
+        catch (HibernateException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Rest endpoint for listing the most recent requests slower than campsite.timing.slow-request-ms, most recent first,
+     * with the milliseconds spent in each of their phases. A 200 is always returned.
+     *
+     * @return  ResponseEntity with the slow requests
+     */
+    @GetMapping(value = "/slow-requests")
+    public ResponseEntity<List<SlowRequest>> getSlowRequests() {
+        return ResponseEntity.status(HttpStatus.OK).body(slowRequestLog.getRecent());
+    }
+}
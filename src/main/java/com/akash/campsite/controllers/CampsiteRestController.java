@@ -1,14 +1,25 @@
 package com.akash.campsite.controllers;
 
+import com.akash.campsite.dao.CircuitOpenException;
+import com.akash.campsite.pojo.Availability;
 import com.akash.campsite.pojo.User;
+import com.akash.campsite.pojo.UserBookingsPage;
+import com.akash.campsite.pojo.WaitlistEntry;
+import com.akash.campsite.service.AvailabilityFormat;
 import com.akash.campsite.service.CampsiteService;
+import com.akash.campsite.service.UserBookingsService;
+import com.akash.campsite.service.WaitlistService;
 import javassist.NotFoundException;
 import org.hibernate.HibernateException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeParseException;
 import java.util.Map;
 
@@ -24,9 +35,17 @@ import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
 @RequestMapping(value = "/campsite")
 public class CampsiteRestController {
 
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
     @Autowired
     private CampsiteService campsiteService;
 
+    @Autowired
+    private WaitlistService waitlistService;
+
+    @Autowired
+    private UserBookingsService userBookingsService;
+
     /**
      * Rest endpoint for creating a new User. If creating the User was successful, a 201 is returned.
      * Else, a 400 is returned.
@@ -42,6 +61,9 @@ public class CampsiteRestController {
             campsiteService.attemptToCreateUser(user.getFirstName(), user.getLastName(), user.getEmail());
             responseEntity =  ResponseEntity.status(HttpStatus.CREATED).body(USER_CREATE_SUCCESS);
         }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
         catch (IllegalArgumentException | HibernateException e) {
             responseEntity =  ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
@@ -73,6 +95,9 @@ public class CampsiteRestController {
         catch (DateTimeParseException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(DATE_ERROR_FORMAT);
         }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
         catch (HibernateException | IllegalArgumentException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
@@ -94,6 +119,9 @@ public class CampsiteRestController {
             campsiteService.attemptToDeleteBooking(bookingId);
             responseEntity = ResponseEntity.status(HttpStatus.NO_CONTENT).body("");
         }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
         catch (HibernateException | IllegalArgumentException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
@@ -104,30 +132,115 @@ public class CampsiteRestController {
     }
 
     /**
-     * Rest endpoint for getting a String of available dates. A 200 is returned if the String of dates was successfully generated.
+     * Rest endpoint for getting the available dates. A 200 is returned if the available dates were successfully generated.
      * Otherwise, a 400 is returned.
      *
+     * The format of the response is negotiated with the Accept header. The list of available dates is returned by default,
+     * application/vnd.campsite.intervals+json returns a JSON array of [start, end) intervals of available dates and
+     * application/vnd.campsite.bitmask returns a compact binary bitmask (see AvailabilityFormat).
+     *
+     * While the database is unavailable, the last known availability is returned if possible, with a Warning header
+     * and an Age header giving how old it is. Otherwise, a 503 is returned.
+     *
      * @param arrivalDateString     String representation of the beginning of the date range
      * @param departureDateString   String representation of the end of the date range
+     * @param accept                Accept header of the request
      *
      * @return                      ResponseEntity with the appropriate status code and content
      */
     @GetMapping(value = "/availability")
-    public ResponseEntity<String> getCampsiteAvailability(@RequestParam(value = "arrivalDateString", required = false) String arrivalDateString,  @RequestParam(value = "departureDateString", required = false) String departureDateString) {
-        ResponseEntity<String> responseEntity;
+    public ResponseEntity<?> getCampsiteAvailability(@RequestParam(value = "arrivalDateString", required = false) String arrivalDateString,  @RequestParam(value = "departureDateString", required = false) String departureDateString,
+                                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        ResponseEntity<?> responseEntity;
         try {
-            String availableDates = campsiteService.getBookingAvailability(arrivalDateString, departureDateString);
-            return  ResponseEntity.status(HttpStatus.OK).body(availableDates);
+            final AvailabilityFormat format = AvailabilityFormat.fromAcceptHeader(accept);
+            final Availability availability = campsiteService.getAvailability(arrivalDateString, departureDateString);
+            final byte[] body = campsiteService.renderAvailability(availability, format);
+            final ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.OK);
+
+            if (availability.isStale()) {
+                // Served from the last known availability while the database is unavailable
+                builder.header(HttpHeaders.WARNING, STALE_WARNING)
+                        .header(HttpHeaders.AGE, String.valueOf(Math.max(0, (System.currentTimeMillis() - availability.getStaleSinceMillis()) / 1000)));
+            }
+
+            if (format == AvailabilityFormat.DATE_LIST) {
+                // Keep the content negotiation of the original String response
+                return builder.body(new String(body, StandardCharsets.UTF_8));
+            }
+            return builder.contentType(MediaType.parseMediaType(format.getContentType())).body(body);
         }
         catch (DateTimeParseException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(DATE_ERROR_FORMAT);
         }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
         catch (HibernateException | IllegalArgumentException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
         return responseEntity;
     }
 
+    /**
+     * Rest endpoint for finding the earliest stays of a given number of nights that can be booked. A 200 is returned with
+     * a JSON array of [arrival, departure) pairs if the stays were successfully found. Otherwise, a 400 is returned.
+     *
+     * @param nights    Number of nights of the stays, from 1 to 3
+     * @param limit     Maximum number of stays to return, 10 by default
+     *
+     * @return          ResponseEntity with the appropriate status code and content
+     */
+    @GetMapping(value = "/availability/windows")
+    public ResponseEntity<?> getStayWindows(@RequestParam(value = "nights", required = false) Integer nights, @RequestParam(value = "limit", required = false) Integer limit) {
+        ResponseEntity<?> responseEntity;
+        try {
+            final byte[] body = campsiteService.renderStayWindows(campsiteService.getStayWindows(nights, limit));
+            responseEntity = ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+        }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
+        catch (HibernateException | IllegalArgumentException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Rest endpoint for listing the Bookings of a User, ordered by arrival date, one page at a time. A 200 is returned with
+     * the page as JSON, written once the Bookings are read. The page includes the cursor of the next page (next), to pass
+     * as the after parameter. If the User does not exist, a 404 is returned. A 400 is returned if the cursor or the limit
+     * is not valid.
+     *
+     * @param email     User's email
+     * @param after     Cursor of the page, from the previous page. The first page is returned if it is not provided
+     * @param limit     Maximum number of Bookings in the page, from 1 to 100, 20 by default
+     *
+     * @return          ResponseEntity with the appropriate status code and content
+     */
+    @GetMapping(value = "/users/{email}/bookings")
+    public ResponseEntity<StreamingResponseBody> getUserBookings(@PathVariable String email, @RequestParam(value = "after", required = false) String after,
+                                                                 @RequestParam(value = "limit", required = false) Integer limit) {
+        final UserBookingsPage page;
+        try {
+            page = userBookingsService.readPage(email, after, limit);
+        }
+        catch (CircuitOpenException e) {
+            return streamError(serviceUnavailable(e));
+        }
+        catch (HibernateException | IllegalArgumentException e) {
+            return streamError(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()));
+        }
+        catch (NotFoundException e) {
+            return streamError(ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()));
+        }
+
+        return ResponseEntity.status(HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(outputStream -> userBookingsService.writePage(page, outputStream));
+    }
+
     /**
      * Rest endpoint for updating a Booking. A 200 is returned if the Booking was successfully updated.
      * If the Booking does not exist, a 404 is returned. A 400 is returned in all other cases something goes wrong.
@@ -151,6 +264,9 @@ public class CampsiteRestController {
         catch (DateTimeParseException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(DATE_ERROR_FORMAT);
         }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
         catch (HibernateException | IllegalArgumentException e) {
             responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
@@ -159,4 +275,117 @@ public class CampsiteRestController {
         }
         return responseEntity;
     }
+
+    /**
+     * Rest endpoint for joining the waitlist of a date range that is not available. If registering was successful, a 201
+     * is returned. Else, a 400 is returned. When the nights become free, the entry is offered the nights, or they are
+     * booked for the user if autoBook is true.
+     *
+     * @param requestBody   Body of the request, should be in a json format
+     *
+     * @return              ResponseEntity with the appropriate status code and content
+     */
+    @PostMapping (value = "/waitlist")
+    public ResponseEntity<String> joinWaitlist(@RequestBody Map<String, String> requestBody) {
+
+        final String firstName = requestBody.get("firstName");
+        final String lastName = requestBody.get("lastName");
+        final String email = requestBody.get("email");
+
+        final String arrivalDateString = requestBody.get("arrivalDateString");
+        final String departureDateString = requestBody.get("departureDateString");
+        final boolean autoBook = Boolean.parseBoolean(requestBody.get("autoBook"));
+
+        ResponseEntity<String> responseEntity;
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED).body(WAITLIST_SUCCESS + waitlistService.register(firstName, lastName, email, arrivalDateString, departureDateString, autoBook));
+        }
+        catch (DateTimeParseException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(DATE_ERROR_FORMAT);
+        }
+        catch (CircuitOpenException e) {
+            responseEntity = serviceUnavailable(e);
+        }
+        catch (HibernateException | IllegalArgumentException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Rest endpoint for getting the status of a waitlist entry (WAITING, OFFERED, BOOKED or EXPIRED). A 200 is returned
+     * with the status, followed by the booking reference if the nights were booked. If the entry does not exist, a 404
+     * is returned, as well as when the email is not the one the entry was registered with.
+     *
+     * @param waitlistId    waitlistId of the entry
+     * @param email         Email the entry was registered with
+     *
+     * @return              ResponseEntity with the appropriate status code and content
+     */
+    @GetMapping (value = "/waitlist/{waitlistId}")
+    public ResponseEntity<String> getWaitlistEntry(@PathVariable String waitlistId, @RequestParam(value = "email", required = false) String email) {
+        ResponseEntity<String> responseEntity;
+        try {
+            final WaitlistEntry entry = waitlistService.getEntry(waitlistId, email);
+            final WaitlistEntry.Status status = entry.getStatus();
+
+            if (status == WaitlistEntry.Status.BOOKED) {
+                responseEntity = ResponseEntity.status(HttpStatus.OK).body(status + ", " + BOOKING_SUCCESS + entry.getBookingId());
+            }
+            else {
+                responseEntity = ResponseEntity.status(HttpStatus.OK).body(status.toString());
+            }
+        }
+        catch (NotFoundException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Rest endpoint for leaving the waitlist. If removing the entry was successful, a 204 is returned.
+     * If the entry does not exist, or the email is not the one the entry was registered with, a 404 is returned.
+     *
+     * @param waitlistId    waitlistId of the entry
+     * @param email         Email the entry was registered with
+     *
+     * @return              ResponseEntity with the appropriate status code and content
+     */
+    @DeleteMapping (value = "/waitlist/{waitlistId}")
+    public ResponseEntity<String> leaveWaitlist(@PathVariable String waitlistId, @RequestParam(value = "email", required = false) String email) {
+        ResponseEntity<String> responseEntity;
+        try {
+            waitlistService.cancel(waitlistId, email);
+            responseEntity = ResponseEntity.status(HttpStatus.NO_CONTENT).body("");
+        }
+        catch (NotFoundException e) {
+            responseEntity = ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Builds the response sent while the database is unavailable, telling the client when to try again.
+     *
+     * @param e     Exception thrown by the open circuit
+     *
+     * @return      ResponseEntity with a 503 status code
+     */
+    private ResponseEntity<String> serviceUnavailable(final CircuitOpenException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf((e.getRetryAfterMillis() + 999) / 1000))
+                .body(e.getMessage());
+    }
+
+    /**
+     * Turns an error response into a streamed response, for the endpoints that stream their content.
+     *
+     * @param error     Error response
+     *
+     * @return          ResponseEntity with the same status code, headers and message
+     */
+    private ResponseEntity<StreamingResponseBody> streamError(final ResponseEntity<String> error) {
+        final byte[] message = error.getBody().getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.status(error.getStatusCode()).headers(error.getHeaders()).body(outputStream -> outputStream.write(message));
+    }
 }
@@ -0,0 +1,23 @@
+package com.akash.campsite.controllers;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Runs the scheduled jobs on a pool of threads. Without a TaskScheduler bean they would all share a single thread, and
+ * a long job (e.g. rebuilding the user filter or relaying a large outbox) would hold up the tailing of the change log
+ * and the replica heartbeat.
+ */
+@Configuration
+public class CampsiteSchedulingConfig {
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${campsite.scheduler.pool-size:8}") final int poolSize) {
+        final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(poolSize);
+        taskScheduler.setThreadNamePrefix("campsite-scheduler-");
+        return taskScheduler;
+    }
+}
@@ -0,0 +1,30 @@
+package com.akash.campsite.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the application's request interceptors, and the interceptor of the response bodies streamed asynchronously.
+ */
+@Configuration
+public class CampsiteWebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private ClientContextInterceptor clientContextInterceptor;
+
+    @Autowired
+    private RequestTimingFilter requestTimingFilter;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(clientContextInterceptor).addPathPatterns("/campsite/**");
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(requestTimingFilter);
+    }
+}
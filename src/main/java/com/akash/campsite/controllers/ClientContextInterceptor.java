@@ -0,0 +1,65 @@
+package com.akash.campsite.controllers;
+
+import com.akash.campsite.utility.ClientContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Carries the read-your-writes pin of each client. When a request writes, the time until which the client's reads
+ * must go to the primary is returned in the X-Read-Primary-Until header and in a cookie of the same name. The client
+ * sends it back, as the cookie or the header, with its next requests, so the pin holds whichever instance of the
+ * application behind the load balancer serves them.
+ */
+@Component
+public class ClientContextInterceptor implements HandlerInterceptor {
+
+    public static final String READ_PRIMARY_UNTIL_HEADER = "X-Read-Primary-Until";
+
+    public static final String READ_PRIMARY_UNTIL_COOKIE = "campsite-read-primary-until";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ClientContext.begin(readPrimaryUntil(request), untilMillis -> {
+            final String value = Long.toString(untilMillis);
+            response.setHeader(READ_PRIMARY_UNTIL_HEADER, value);
+
+            final Cookie cookie = new Cookie(READ_PRIMARY_UNTIL_COOKIE, value);
+            cookie.setPath("/campsite");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, (untilMillis - System.currentTimeMillis() + 999) / 1000));
+            response.addCookie(cookie);
+        });
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ClientContext.clear();
+    }
+
+    /**
+     * @return  Time (epoch millis) sent by the client in the header or the cookie, 0 if none or malformed
+     */
+    private static long readPrimaryUntil(final HttpServletRequest request) {
+        String value = request.getHeader(READ_PRIMARY_UNTIL_HEADER);
+
+        if (value == null && request.getCookies() != null) {
+            for (Cookie cookie : request.getCookies()) {
+                if (READ_PRIMARY_UNTIL_COOKIE.equals(cookie.getName())) {
+                    value = cookie.getValue();
+                }
+            }
+        }
+
+        try {
+            return value != null ? Long.parseLong(value.trim()) : 0;
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
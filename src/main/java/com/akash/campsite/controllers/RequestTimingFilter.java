@@ -0,0 +1,115 @@
+package com.akash.campsite.controllers;
+
+import com.akash.campsite.pojo.SlowRequest;
+import com.akash.campsite.service.SlowRequestLog;
+import com.akash.campsite.utility.RequestTimings;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import static com.akash.campsite.controllers.ServerTimingAdvice.SERVER_TIMING_HEADER;
+
+/**
+ * Collects the timings of each request to the application. The timings are added to the response by ServerTimingAdvice,
+ * and the requests slower than the configured threshold are kept in the SlowRequestLog. The bytes allocated by the
+ * read-only queries of each request are recorded in the campsite.dao.read.allocated summary.
+ *
+ * A StreamingResponseBody is written by another thread once the controller has returned, and is never seen by
+ * ServerTimingAdvice. Its Server-Timing header is added here before the body starts, with the phases known by then.
+ * The timings then follow the body to the streaming thread, registered as a CallableProcessingInterceptor by
+ * CampsiteWebConfig, and the request is recorded once the body is written.
+ */
+@Component
+public class RequestTimingFilter extends OncePerRequestFilter implements CallableProcessingInterceptor {
+
+    private static final String TIMINGS_ATTRIBUTE = RequestTimingFilter.class.getName() + ".timings";
+
+    private static final String STARTED_AT_ATTRIBUTE = RequestTimingFilter.class.getName() + ".startedAtMillis";
+
+    @Autowired
+    private SlowRequestLog slowRequestLog;
+
+    private final DistributionSummary readAllocation;
+
+    @Autowired
+    public RequestTimingFilter(final MeterRegistry meterRegistry) {
+        readAllocation = DistributionSummary.builder("campsite.dao.read.allocated")
+                .description("Bytes allocated by the read-only queries of a request, per request that made any")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/campsite");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        final long startedAtMillis = System.currentTimeMillis();
+        RequestTimings.begin();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // Nothing was written yet, the headers can still be added
+                final String serverTiming = RequestTimings.toServerTiming();
+
+                if (serverTiming != null && !response.isCommitted() && !response.containsHeader(SERVER_TIMING_HEADER)) {
+                    response.addHeader(SERVER_TIMING_HEADER, serverTiming);
+                }
+                request.setAttribute(STARTED_AT_ATTRIBUTE, startedAtMillis);
+                request.setAttribute(TIMINGS_ATTRIBUTE, RequestTimings.detach());
+            }
+            else {
+                complete(request, response, startedAtMillis);
+            }
+        }
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+        RequestTimings.attach((RequestTimings) request.getAttribute(TIMINGS_ATTRIBUTE, NativeWebRequest.SCOPE_REQUEST));
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+        final Long startedAtMillis = (Long) request.getAttribute(STARTED_AT_ATTRIBUTE, NativeWebRequest.SCOPE_REQUEST);
+        final HttpServletRequest servletRequest = request.getNativeRequest(HttpServletRequest.class);
+        final HttpServletResponse servletResponse = request.getNativeResponse(HttpServletResponse.class);
+
+        if (RequestTimings.isActive() && startedAtMillis != null && servletRequest != null && servletResponse != null) {
+            complete(servletRequest, servletResponse, startedAtMillis);
+        }
+        RequestTimings.clear();
+    }
+
+    /**
+     * Records the timings of the request and stops collecting them.
+     */
+    private void complete(final HttpServletRequest request, final HttpServletResponse response, final long startedAtMillis) {
+        final long totalNanos = RequestTimings.getTotalNanos();
+        final long readAllocatedBytes = RequestTimings.getReadAllocatedBytes();
+
+        if (readAllocatedBytes >= 0) {
+            readAllocation.record(readAllocatedBytes);
+        }
+
+        if (slowRequestLog.isSlow(totalNanos)) {
+            slowRequestLog.record(new SlowRequest(startedAtMillis, request.getMethod(), request.getRequestURI(), response.getStatus(),
+                    totalNanos / 1_000_000.0, RequestTimings.getPhaseMillis()));
+        }
+        RequestTimings.clear();
+    }
+}
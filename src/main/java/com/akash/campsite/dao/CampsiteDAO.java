@@ -1,19 +1,44 @@
 package com.akash.campsite.dao;
 
 import com.akash.campsite.pojo.Booking;
+import com.akash.campsite.pojo.BookingChange;
+import com.akash.campsite.pojo.BookingRecord;
+import com.akash.campsite.pojo.DateRange;
 import com.akash.campsite.pojo.User;
+import com.akash.campsite.utility.AllocationMeter;
+import com.akash.campsite.utility.RequestTimings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import javassist.NotFoundException;
 import org.hibernate.HibernateException;
+import org.hibernate.PessimisticLockException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
-import org.hibernate.cfg.Configuration;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.query.NativeQuery;
 import org.hibernate.query.Query;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.PersistenceException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
 
@@ -24,20 +49,139 @@ import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
  * in case an error occurs at the database level. The exceptions are then rethrown
  * with appropriate error messages so that they can be caught by the controller
  * to send a response with the appropriate response code and error message.
+ *
+ * Sessions are obtained from the SessionRouter: mutations always run against the primary database while
+ * read-only queries may be served by a read replica.
+ *
+ * Every mutation of a Booking also appends a row to the BOOKING_CHANGES log in the same transaction, so that
+ * every instance of the application can keep its local caches in sync by tailing the log, and to the BOOKING_OUTBOX
+ * table, from which the events are relayed to downstream systems.
+ *
+ * A Booking claims its nights in the CAMPSITE_NIGHTS table, whose primary key rejects the nights already claimed by
+ * another Booking. The transactions that lose a deadlock or time out waiting for a night are retried with a backoff.
+ *
+ * The operations used to serve requests go through the CircuitBreaker, which rejects them with a CircuitOpenException
+ * while the database is unavailable. The causes of the HibernateExceptions are kept so that it can tell failures of the
+ * database from errors caused by the request.
  */
 
 @Repository
 public class CampsiteDAO {
 
-    private SessionFactory factory;
+    private static final String INSERT_CHANGE_SQL = "INSERT INTO BOOKING_CHANGES (CHANGE_TYPE, BOOKING_ID, USER_ID, ARRIVAL_DATE, DEPARTURE_DATE, " +
+            "PREVIOUS_ARRIVAL_DATE, PREVIOUS_DEPARTURE_DATE, CHANGED_AT) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_OUTBOX_SQL = "INSERT INTO BOOKING_OUTBOX (CHANGE_TYPE, BOOKING_ID, USER_ID, ARRIVAL_DATE, DEPARTURE_DATE, " +
+            "PREVIOUS_ARRIVAL_DATE, PREVIOUS_DEPARTURE_DATE, CHANGED_AT) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_NIGHT_SQL = "INSERT INTO CAMPSITE_NIGHTS (NIGHT_DATE, BOOKING_ID) VALUES (?, ?)";
+
+    // Attempts of a transaction that keeps losing lock conflicts, and backoff before the first retry (doubled after each)
+    private static final int MAX_LOCK_ATTEMPTS = 4;
+    private static final long LOCK_RETRY_BACKOFF_MILLIS = 10;
+
+    private static final String SELECT_CHANGES_SQL = "SELECT CHANGE_ID, CHANGE_TYPE, BOOKING_ID, USER_ID, ARRIVAL_DATE, DEPARTURE_DATE, " +
+            "PREVIOUS_ARRIVAL_DATE, PREVIOUS_DEPARTURE_DATE, CHANGED_AT FROM BOOKING_CHANGES ";
+
+    private static final String SELECT_OUTBOX_SQL = "SELECT OUTBOX_ID, CHANGE_TYPE, BOOKING_ID, USER_ID, ARRIVAL_DATE, DEPARTURE_DATE, " +
+            "PREVIOUS_ARRIVAL_DATE, PREVIOUS_DEPARTURE_DATE, CHANGED_AT FROM BOOKING_OUTBOX ";
+
+    private final SessionRouter sessionRouter;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final Counter lockRetries;
 
-    public CampsiteDAO() {
+    @Autowired
+    public CampsiteDAO(final SessionRouter sessionRouter, final CircuitBreaker circuitBreaker, final MeterRegistry meterRegistry) {
+        this.sessionRouter = sessionRouter;
+        this.circuitBreaker = circuitBreaker;
+
+        lockRetries = Counter.builder("campsite.dao.lock.retries")
+                .description("Booking transactions retried after a deadlock or a lock wait timeout")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Claims the CAMPSITE_NIGHTS of the Bookings written before the table existed, i.e. the Bookings without any night.
+     * The Bookings are read by ascending bookingId, batchSize at a time, and their nights are inserted and committed per
+     * batch, so the backfill can be run again after a failure and skips the Bookings already done.
+     *
+     * The Bookings are read without locks. Each night is inserted only if its Booking still has the dates that were read,
+     * which locks the Booking's row alone: a Booking updated or cancelled in the meantime is skipped, and one updated
+     * afterwards releases the backfilled nights itself. A night claimed by two Bookings fails the batch.
+     *
+     * @param batchSize     Number of Bookings per batch
+     *
+     * @return              Number of nights claimed
+     */
+    public long backfillCampsiteNights(final int batchSize) {
+        final Session session = sessionRouter.openWriteSession();
+        final long[] claimed = {0};
         try {
-            factory = new Configuration().configure().buildSessionFactory();
-        } catch (Throwable ex) {
-            System.err.println("Failed to create sessionFactory object." + ex);
-            throw new ExceptionInInitializerError(ex);
+            session.doWork(connection -> {
+                final boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+
+                try (PreparedStatement select = connection.prepareStatement(
+                        "SELECT BOOKING_ID, ARRIVAL_DATE, DEPARTURE_DATE FROM BOOKINGS b WHERE BOOKING_ID > ? " +
+                        "AND NOT EXISTS (SELECT 1 FROM CAMPSITE_NIGHTS n WHERE n.BOOKING_ID = b.BOOKING_ID) ORDER BY BOOKING_ID LIMIT ?");
+                     PreparedStatement insertNight = connection.prepareStatement(
+                        "INSERT INTO CAMPSITE_NIGHTS (NIGHT_DATE, BOOKING_ID) SELECT ?, BOOKING_ID FROM BOOKINGS " +
+                        "WHERE BOOKING_ID = ? AND ARRIVAL_DATE = ? AND DEPARTURE_DATE = ?")) {
+                    int lastBookingId = 0;
+                    int read;
+
+                    do {
+                        select.setInt(1, lastBookingId);
+                        select.setInt(2, batchSize);
+                        read = 0;
+
+                        try (ResultSet bookings = select.executeQuery()) {
+                            while (bookings.next()) {
+                                lastBookingId = bookings.getInt(1);
+                                final Date arrivalDate = bookings.getDate(2);
+                                final Date departureDate = bookings.getDate(3);
+
+                                for (LocalDate night = arrivalDate.toLocalDate(); night.isBefore(departureDate.toLocalDate()); night = night.plusDays(1)) {
+                                    insertNight.setDate(1, Date.valueOf(night));
+                                    insertNight.setInt(2, lastBookingId);
+                                    insertNight.setDate(3, arrivalDate);
+                                    insertNight.setDate(4, departureDate);
+                                    insertNight.addBatch();
+                                }
+                                read++;
+                            }
+                        }
+
+                        long batchClaimed = 0;
+                        for (int count : insertNight.executeBatch()) {
+                            batchClaimed += Math.max(count, 0);
+                        }
+                        connection.commit();
+                        claimed[0] += batchClaimed;
+                    } while (read == batchSize);
+                }
+                catch (SQLException | RuntimeException e) {
+                    try {
+                        connection.rollback();
+                    }
+                    catch (SQLException rollbackException) {
+                        e.addSuppressed(rollbackException);
+                    }
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            });
+        }
+        catch (HibernateException e) {
+            e.printStackTrace();
+            throw new HibernateException(NIGHTS_ERROR_BACKFILL_HIBERNATE + claimed[0], e);
+        } finally {
+            session.close();
         }
+        return claimed[0];
     }
 
     /**
@@ -50,191 +194,603 @@ public class CampsiteDAO {
      * @throws NotFoundException    Thrown if the Booking does not exist
      */
     public void cancelBooking(final int bookingId) throws NotFoundException {
-        final Session session = factory.openSession();
-        Transaction transaction = null;
+        circuitBreaker.execute(() -> {
+            if (bookingId > 0) {
+                final Session session = sessionRouter.openWriteSession();
+                Transaction transaction = null;
+
+                try {
+                    final long queryStart = RequestTimings.start();
+                    transaction = session.beginTransaction();
+
+                    // The lookup is done on the primary, a replica might not have the Booking yet
+                    Booking booking = (Booking) session.get(Booking.class, bookingId);
+
+                    if (booking == null) {
+                        transaction.rollback();
+                        throw new NotFoundException(BOOKING_ERROR_CANCEL_NON_EXISTENT + bookingId);
+                    }
+
+                    final BookingChange change = new BookingChange(BookingChange.ChangeType.CANCELLED, booking.getBookingId(), booking.getUserId(),
+                            booking.getArrivalDate(), booking.getDepartureDate());
+
+                    session.doWork(connection -> releaseNights(connection, bookingId));
+                    session.delete(booking);
+                    appendChange(session, change);
+                    RequestTimings.stop(RequestTimings.QUERY, queryStart);
+
+                    // The DELETE of the Booking is flushed, and the triggers run, on commit
+                    final long commitStart = RequestTimings.start();
+                    transaction.commit();
+                    RequestTimings.stop(RequestTimings.COMMIT, commitStart);
+                    sessionRouter.recordWrite();
+                }
+                catch (HibernateException e) {
+                    if (transaction != null) {
+                        transaction.rollback();
+                    }
+                    e.printStackTrace();
+                    throw new HibernateException(BOOKING_ERROR_CANCEL_HIBERNATE + bookingId, e);
+                }
+                catch (PersistenceException e) {
+                    // Caught when the user attempts to delete a past Booking
+                    e.printStackTrace();
+                   throw new IllegalArgumentException(BOOKING_ERROR_CANCEL_PAST + bookingId, e);
+                } finally {
+                    session.close();
+                }
+            }
+            else {
+                throw new NotFoundException(BOOKING_ERROR_CANCEL_NON_EXISTENT + bookingId);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Creates a new Booking in the database and returns the bookingId
+     *
+     * @param userId            Id of the User that created the Booking
+     * @param arrivalDate       Booking arrival date
+     * @param departureDate     Booking departure date
+     *
+     * @return                  bookingId of the newly created Booking
+     */
+    public int createBooking(final int userId, final LocalDate arrivalDate, final LocalDate departureDate) {
+        return retryOnLockConflict(() -> {
+            Transaction transaction = null;
+            int bookingId = -1;
 
-        if (bookingId > 0 && searchBookingById(bookingId)) {
+            final Session session = sessionRouter.openWriteSession();
             try {
+                final long queryStart = RequestTimings.start();
                 transaction = session.beginTransaction();
-                Booking booking = (Booking) session.get(Booking.class, bookingId);
-                session.delete(booking);
+                Booking booking = new Booking(userId, arrivalDate, departureDate);
+
+                // The bookingId is generated by the database, so the INSERT, and the triggers, run right away
+                bookingId = (Integer) session.save(booking);
+                final int claimingBookingId = bookingId;
+                session.doWork(connection -> claimNights(connection, claimingBookingId, arrivalDate, departureDate));
+                appendChange(session, new BookingChange(BookingChange.ChangeType.CREATED, bookingId, userId, arrivalDate, departureDate));
+                RequestTimings.stop(RequestTimings.QUERY, queryStart);
+
+                final long commitStart = RequestTimings.start();
                 transaction.commit();
+                RequestTimings.stop(RequestTimings.COMMIT, commitStart);
+                sessionRouter.recordWrite();
             }
             catch (HibernateException e) {
                 if (transaction != null) {
                     transaction.rollback();
                 }
                 e.printStackTrace();
-                throw new HibernateException(BOOKING_ERROR_CANCEL_HIBERNATE + bookingId);
+                throw new HibernateException(BOOKING_ERROR_CREATE_HIBERNATE, e);
+            } finally {
+                session.close();
             }
-            catch (PersistenceException e) {
-                // Caught when the user attempts to delete a past Booking
+            return bookingId;
+        });
+    }
+
+    /**
+     * Creates a new User in the database and returns the userId
+     *
+     * @param firstName     User's first name
+     * @param lastName      User's last name
+     * @param email         User's email
+     *
+     * @return              userId of the newly created User
+     */
+    public int createUser (final String firstName, final String lastName, final String email) {
+        return circuitBreaker.execute(() -> {
+            Transaction transaction = null;
+            int userId = -1;
+
+            final Session session = sessionRouter.openWriteSession();
+            try {
+                final long queryStart = RequestTimings.start();
+                transaction = session.beginTransaction();
+                final User user = new User(firstName, lastName, email);
+                userId = (Integer) session.save(user);
+                RequestTimings.stop(RequestTimings.QUERY, queryStart);
+
+                final long commitStart = RequestTimings.start();
+                transaction.commit();
+                RequestTimings.stop(RequestTimings.COMMIT, commitStart);
+                sessionRouter.recordWrite();
+            }
+            catch (HibernateException e) {
+                if (transaction != null) {
+                    transaction.rollback();
+                }
                 e.printStackTrace();
-               throw new IllegalArgumentException(BOOKING_ERROR_CANCEL_PAST + bookingId);
+
+                // Another request created a User with the same email first. The caller reads it back, from the primary
+                if (e instanceof ConstraintViolationException) {
+                    sessionRouter.recordWrite();
+                }
+                throw new HibernateException(USER_CREATE_ERROR_HIBERNATE, e);
+
             } finally {
                 session.close();
             }
-        }
-        else {
-            throw new NotFoundException(BOOKING_ERROR_CANCEL_NON_EXISTENT + bookingId);
-        }
+            return userId;
+        });
     }
 
     /**
-     * Creates a new Booking in the database and returns the bookingId
+     * Streams every Booking, with the User who made it, ordered by bookingId, to the consumer. The rows are read
+     * through a forward-only cursor from a stateless session so that memory use does not depend on the number of Bookings.
+     * With MySQL, rows are only streamed when fetchSize is Integer.MIN_VALUE or when useCursorFetch=true is set
+     * on the connection URL.
      *
-     * @param userId            Id of the User that created the Booking
-     * @param arrivalDate       Booking arrival date
-     * @param departureDate     Booking departure date
+     * @param fetchSize     JDBC fetch size of the cursor
+     * @param consumer      Consumer the Bookings are passed to, one at a time
      *
-     * @return                  bookingId of the newly created Booking
+     * @return              Number of Bookings exported
      */
-    public int createBooking(final int userId, final LocalDate arrivalDate, final LocalDate departureDate) {
-        Transaction transaction = null;
-        int bookingId = -1;
-
-        final Session session = factory.openSession();
+    public long exportBookings(final int fetchSize, final Consumer<BookingRecord> consumer) {
+        final StatelessSession session = sessionRouter.openReadStatelessSession();
+        long exported = 0;
         try {
-            transaction = session.beginTransaction();
-            Booking booking = new Booking(userId, arrivalDate, departureDate);
-            bookingId = (Integer) session.save(booking);
-            transaction.commit();
+            final String hql = "SELECT b.bookingId, b.userId, b.arrivalDate, b.departureDate, u.firstName, u.lastName, u.email " +
+                    "FROM Booking b, User u WHERE u.userId = b.userId ORDER BY b.bookingId";
+            final Query<Object[]> query = session.createQuery(hql, Object[].class);
+            query.setFetchSize(fetchSize);
+            query.setReadOnly(true);
+
+            try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    final Object[] row = results.get();
+                    consumer.accept(new BookingRecord((Integer) row[0], (Integer) row[1], (LocalDate) row[2], (LocalDate) row[3],
+                            (String) row[4], (String) row[5], (String) row[6]));
+                    exported++;
+                }
+            }
         }
         catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-            throw new HibernateException(BOOKING_ERROR_CREATE_HIBERNATE);
+            throw new HibernateException(BACKUP_ERROR_EXPORT_HIBERNATE + exported, e);
         } finally {
             session.close();
         }
-        return bookingId;
+        return exported;
     }
 
     /**
-     * Creates a new User in the database and returns the userId
+     * Streams the email of every User to the consumer, through a forward-only cursor from a stateless session so that
+     * memory use does not depend on the number of Users.
      *
-     * @param firstName     User's first name
-     * @param lastName      User's last name
-     * @param email         User's email
+     * @param fetchSize     JDBC fetch size of the cursor
+     * @param consumer      Consumer the emails are passed to, one at a time
      *
-     * @return              userId of the newly created User
+     * @return              Number of emails exported
      */
-    public int createUser (final String firstName, final String lastName, final String email) {
-        Transaction transaction = null;
-        int userId = -1;
-
-        final Session session = factory.openSession();
+    public long exportUserEmails(final int fetchSize, final Consumer<String> consumer) {
+        final StatelessSession session = sessionRouter.openReadStatelessSession();
+        long exported = 0;
         try {
-            transaction = session.beginTransaction();
-            final User user = new User(firstName, lastName, email);
-            userId = (Integer) session.save(user);
-            transaction.commit();
+            final Query<String> query = session.createQuery("SELECT u.email FROM User u", String.class);
+            query.setFetchSize(fetchSize);
+            query.setReadOnly(true);
+
+            try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    consumer.accept((String) results.get(0));
+                    exported++;
+                }
+            }
         }
         catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-            throw new HibernateException(USER_CREATE_ERROR_HIBERNATE);
-
+            throw new HibernateException(USER_ERROR_EXPORT_HIBERNATE, e);
         } finally {
             session.close();
         }
-        return userId;
+        return exported;
     }
 
     /**
-     * Queries the database to get a list of Booking objects within the date range.
+     * Queries the database to get the arrival and departure dates of the Bookings within the date range.
+     * Only the two dates are projected, as epoch days, and no entity is loaded into a persistence context.
      *
      * @param arrivalDate       Beginning of the date range query
      * @param departureDate     End of the date range query
+     * @param fromPrimary       Boolean indicating whether to read from the primary database, for decisions that cannot
+     *                          tolerate replication lag. Otherwise the replica is read when it is safe to do so
      *
-     * @return                  List of Booking objects with dates within the range
+     * @return                  List of DateRange objects of the Bookings with dates within the range
      */
-    public List<Booking> getBookingsInDateRange(final LocalDate arrivalDate, final LocalDate departureDate) {
-        final Session session = factory.openSession();
-        final List<Booking> results;
+    public List<DateRange> getBookedRangesInDateRange(final LocalDate arrivalDate, final LocalDate departureDate, final boolean fromPrimary) {
+        return circuitBreaker.execute(() -> {
+            final long allocatedBytes = AllocationMeter.currentThreadAllocatedBytes();
+            final StatelessSession session = fromPrimary ? sessionRouter.openPrimaryStatelessSession() : sessionRouter.openReadStatelessSession();
+            final List<DateRange> results = new ArrayList<>();
+            try {
+                // A Booking overlaps the (inclusive) range when it starts before the range ends and ends after the range starts
+                final String hql = "SELECT b.arrivalDate, b.departureDate FROM Booking b " +
+                        "WHERE b.arrivalDate <= :departureDate AND :arrivalDate <= b.departureDate";
+                final Query<Object[]> query = session.createQuery(hql, Object[].class);
+                query.setParameter("arrivalDate", arrivalDate);
+                query.setParameter("departureDate", departureDate);
+
+                final long queryStart = RequestTimings.start();
+                for (Object[] row : query.list()) {
+                    results.add(new DateRange((LocalDate) row[0], (LocalDate) row[1]));
+                }
+                RequestTimings.stop(RequestTimings.QUERY, queryStart);
+            }
+            catch (HibernateException e) {
+                e.printStackTrace();
+                throw new HibernateException(AVAILABILITY_ERROR_HIBERNATE, e);
+            } finally {
+                session.close();
+            }
+            recordAllocation(allocatedBytes);
+            return results;
+        });
+    }
+
+    /**
+     * Returns the changes logged after the given changeId, in changeId order. The log is read from the primary
+     * database so that replication lag does not add to the staleness of the caches kept in sync with it.
+     *
+     * @param changeId      changeId after which to read
+     * @param maxResults    Maximum number of changes to return
+     *
+     * @return              List of BookingChange objects
+     */
+    public List<BookingChange> getBookingChangesAfter(final long changeId, final int maxResults) {
+        final StatelessSession session = sessionRouter.openPrimaryStatelessSession();
         try {
-            final String hql = "FROM Booking b WHERE (b.arrivalDate <= :arrivalDate AND :arrivalDate <= b.departureDate) OR " +
-                    "(:arrivalDate <= b.arrivalDate AND b.arrivalDate <= :departureDate) OR " +
-                    "(:arrivalDate <= b.arrivalDate AND :departureDate >= b.departureDate) OR" +
-                    "(:arrivalDate >= b.arrivalDate AND :departureDate <= b.departureDate)";
-            final Query query = session.createQuery(hql);
-            query.setParameter("arrivalDate", arrivalDate);
-            query.setParameter("departureDate", departureDate);
-            results = (List<Booking>) query.list();
+            final NativeQuery<Object[]> query = session.createNativeQuery(SELECT_CHANGES_SQL + "WHERE CHANGE_ID > :changeId ORDER BY CHANGE_ID");
+            query.setParameter("changeId", changeId);
+            query.setMaxResults(maxResults);
+            return toBookingChanges(query.list());
         }
         catch (HibernateException e) {
             e.printStackTrace();
-            throw new HibernateException(AVAILABILITY_ERROR_HIBERNATE);
+            throw new HibernateException(BOOKING_CHANGES_ERROR_HIBERNATE, e);
         } finally {
             session.close();
         }
-        return results;
     }
 
     /**
-     * Returns a boolean value indicating whether a Booking with the provided bookingId exists
+     * Returns the logged changes with the given changeIds, in changeId order. Used to pick up changes whose transaction
+     * committed after changes with a higher changeId had already been read.
      *
-     * @param bookingId     bookingId to search for
+     * @param changeIds     changeIds to read
      *
-     * @return              boolean indicating if the Booking was found
+     * @return              List of BookingChange objects
      */
-    public boolean searchBookingById(final int bookingId) {
-        boolean found = false;
-        final Session session = factory.openSession();
+    public List<BookingChange> getBookingChangesById(final Collection<Long> changeIds) {
+        if (changeIds.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        final List<Integer> results;
+        final StatelessSession session = sessionRouter.openPrimaryStatelessSession();
         try {
-            final String hql = "SELECT b.bookingId FROM Booking b WHERE b.bookingId = :bookingId";
-            final Query query = session.createQuery(hql);
-            query.setParameter("bookingId", bookingId);
-            results = (List<Integer>) query.list();
+            final NativeQuery<Object[]> query = session.createNativeQuery(SELECT_CHANGES_SQL + "WHERE CHANGE_ID IN (:changeIds) ORDER BY CHANGE_ID");
+            query.setParameterList("changeIds", changeIds);
+            return toBookingChanges(query.list());
+        }
+        catch (HibernateException e) {
+            e.printStackTrace();
+            throw new HibernateException(BOOKING_CHANGES_ERROR_HIBERNATE, e);
+        } finally {
+            session.close();
+        }
+    }
 
-            if (results != null && !results.isEmpty()) {
-                found = true;
-            }
+    /**
+     * Returns the highest changeId of the BOOKING_CHANGES log, or 0 if the log is empty.
+     *
+     * @return  Highest changeId
+     */
+    public long getLastBookingChangeId() {
+        final StatelessSession session = sessionRouter.openPrimaryStatelessSession();
+        try {
+            final Object result = session.createNativeQuery("SELECT MAX(CHANGE_ID) FROM BOOKING_CHANGES").uniqueResult();
+            return result != null ? ((Number) result).longValue() : 0;
         }
         catch (HibernateException e) {
             e.printStackTrace();
-            throw new HibernateException(BOOKING_ERROR_SEARCH_HIBERNATE + bookingId);
+            throw new HibernateException(BOOKING_CHANGES_ERROR_HIBERNATE, e);
         } finally {
             session.close();
         }
-        return found;
     }
 
     /**
-     * Returns a userId or -1 depending on whether the User with the
-     * specified email (unique) exists.
+     * Reads a page of a User's Bookings, ordered by (arrivalDate, bookingId). The page starts right after the Booking
+     * (afterArrivalDate, afterBookingId), or at the first Booking when afterArrivalDate is null. The query is answered by
+     * the (USER_ID, ARRIVAL_DATE, BOOKING_ID) index: a seek to the cursor followed by a scan of maxResults rows.
+     * The Bookings are read into a list so that the session and its connection are released before the page is written.
      *
-     * @param email     User's email
+     * @param userId            userId of the User
+     * @param afterArrivalDate  Arrival date of the last Booking of the previous page, or null for the first page
+     * @param afterBookingId    bookingId of the last Booking of the previous page
+     * @param maxResults        Maximum number of Bookings to read
      *
-     * @return          userId if the User exists. Else, -1
+     * @return                  Bookings of the page, at most maxResults
      */
-    public int searchUserByEmail(final String email) {
-        final Session session = factory.openSession();
-        int id = -1;
-        final List<Integer> results;
-        try {
-            final String hql = "SELECT u.userId FROM User u WHERE u.email = :email";
-            final Query query = session.createQuery(hql);
-            query.setParameter("email", email);
-            results = (List<Integer>) query.list();
+    public List<Booking> getUserBookingsPage(final int userId, final LocalDate afterArrivalDate, final int afterBookingId, final int maxResults) {
+        return circuitBreaker.execute(() -> {
+            final StatelessSession session = sessionRouter.openReadStatelessSession();
+            try {
+                final String hql = "FROM Booking b WHERE b.userId = :userId" +
+                        (afterArrivalDate != null ? " AND (b.arrivalDate > :afterArrivalDate OR (b.arrivalDate = :afterArrivalDate AND b.bookingId > :afterBookingId))" : "") +
+                        " ORDER BY b.arrivalDate, b.bookingId";
+                final Query<Booking> query = session.createQuery(hql, Booking.class);
+                query.setParameter("userId", userId);
+
+                if (afterArrivalDate != null) {
+                    query.setParameter("afterArrivalDate", afterArrivalDate);
+                    query.setParameter("afterBookingId", afterBookingId);
+                }
+                query.setMaxResults(maxResults);
+                query.setReadOnly(true);
 
-            if (results != null && !results.isEmpty()) {
-                id = results.get(0);
+                final long queryStart = RequestTimings.start();
+                final List<Booking> bookings = query.list();
+                RequestTimings.stop(RequestTimings.QUERY, queryStart);
+                return bookings;
             }
+            catch (HibernateException e) {
+                e.printStackTrace();
+                throw new HibernateException(USER_BOOKINGS_ERROR_HIBERNATE + userId, e);
+            } finally {
+                session.close();
+            }
+        });
+    }
+
+    /**
+     * Inserts the Bookings, keeping their bookingIds, and the CAMPSITE_NIGHTS they claim, with JDBC batches that are
+     * committed every batchSize Bookings. A Booking that overlaps a Booking already in the database fails the batch.
+     * The Users of the Bookings are inserted, keeping their userIds, unless a User with the same userId exists. A Booking
+     * read without its User's details fails the batch if the User does not exist.
+     *
+     * If an error occurs, the batch being inserted is rolled back but the previous batches stay committed.
+     * A single RESET change is appended to the BOOKING_CHANGES log once the import is over, instead of one change per Booking.
+     *
+     * @param bookings      Bookings to insert
+     * @param batchSize     Number of rows per batch
+     *
+     * @return              Number of Bookings imported
+     */
+    public long importBookings(final Iterator<BookingRecord> bookings, final int batchSize) {
+        final Session session = sessionRouter.openWriteSession();
+        final long[] imported = {0};
+        try {
+            session.doWork(connection -> {
+                final boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                Exception failure = null;
+
+                try (PreparedStatement insertUser = connection.prepareStatement(
+                        "INSERT INTO USERS (USER_ID, FIRST_NAME, LAST_NAME, EMAIL) SELECT ?, ?, ?, ? FROM DUAL " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM USERS WHERE USER_ID = ?)");
+                     PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO BOOKINGS (BOOKING_ID, USER_ID, ARRIVAL_DATE, DEPARTURE_DATE) VALUES (?, ?, ?, ?)");
+                     PreparedStatement insertNight = connection.prepareStatement(INSERT_NIGHT_SQL)) {
+                    int pending = 0;
+
+                    while (bookings.hasNext()) {
+                        final BookingRecord booking = bookings.next();
+
+                        if (booking.getEmail() != null) {
+                            // Runs before the Booking, and after the previous Bookings of the same User, in the batch
+                            insertUser.setInt(1, booking.getUserId());
+                            insertUser.setString(2, booking.getFirstName());
+                            insertUser.setString(3, booking.getLastName());
+                            insertUser.setString(4, booking.getEmail());
+                            insertUser.setInt(5, booking.getUserId());
+                            insertUser.addBatch();
+                        }
+
+                        insert.setInt(1, booking.getBookingId());
+                        insert.setInt(2, booking.getUserId());
+                        insert.setDate(3, Date.valueOf(booking.getArrivalDate()));
+                        insert.setDate(4, Date.valueOf(booking.getDepartureDate()));
+                        insert.addBatch();
+
+                        for (LocalDate night = booking.getArrivalDate(); night.isBefore(booking.getDepartureDate()); night = night.plusDays(1)) {
+                            insertNight.setDate(1, Date.valueOf(night));
+                            insertNight.setInt(2, booking.getBookingId());
+                            insertNight.addBatch();
+                        }
+
+                        if (++pending == batchSize) {
+                            insertUser.executeBatch();
+                            insert.executeBatch();
+                            insertNight.executeBatch();
+                            connection.commit();
+                            imported[0] += pending;
+                            pending = 0;
+                        }
+                    }
+
+                    if (pending > 0) {
+                        insertUser.executeBatch();
+                        insert.executeBatch();
+                        insertNight.executeBatch();
+                        connection.commit();
+                        imported[0] += pending;
+                    }
+                }
+                catch (SQLException | RuntimeException e) {
+                    failure = e;
+                    try {
+                        connection.rollback();
+                    }
+                    catch (SQLException rollbackException) {
+                        e.addSuppressed(rollbackException);
+                    }
+                    throw e;
+                } finally {
+                    try {
+                        // Caches cannot be patched one imported Booking at a time, tell every instance to rebuild them
+                        if (imported[0] > 0) {
+                            insertChange(connection, INSERT_CHANGE_SQL, new BookingChange(BookingChange.ChangeType.RESET, null, null, null, null));
+                            connection.commit();
+                        }
+
+                        connection.setAutoCommit(autoCommit);
+                    }
+                    catch (SQLException | RuntimeException e) {
+                        // The error that stopped the import is the one to report
+                        if (failure == null) {
+                            throw e;
+                        }
+                        failure.addSuppressed(e);
+                    }
+                }
+            });
+        }
+        catch (HibernateException e) {
+            e.printStackTrace();
+            throw new HibernateException(BACKUP_ERROR_IMPORT_HIBERNATE + imported[0], e);
+        } finally {
+            session.close();
+        }
+        return imported[0];
+    }
+
+    /**
+     * Deletes the logged changes older than the given time.
+     *
+     * @param changedBeforeMillis   Changes logged before this time (epoch millis) are deleted
+     *
+     * @return                      Number of changes deleted
+     */
+    public int purgeBookingChanges(final long changedBeforeMillis) {
+        Transaction transaction = null;
+        final Session session = sessionRouter.openWriteSession();
+        try {
+            transaction = session.beginTransaction();
+            final int deleted = session.createNativeQuery("DELETE FROM BOOKING_CHANGES WHERE CHANGED_AT < :changedBefore")
+                    .setParameter("changedBefore", changedBeforeMillis)
+                    .executeUpdate();
+            transaction.commit();
+            return deleted;
         }
         catch (HibernateException e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
             e.printStackTrace();
-            throw new HibernateException(USER_ERROR_SEARCH_HIBERNATE + email);
+            throw new HibernateException(BOOKING_CHANGES_ERROR_HIBERNATE, e);
         } finally {
             session.close();
         }
-        return id;
+    }
+
+    /**
+     * Relays the oldest events of the BOOKING_OUTBOX table that are not claimed by another relay. The batch is claimed in
+     * a short transaction, passed to the publisher outside of any transaction, then deleted. Claiming writes a claimId and
+     * a lease (CLAIMED_UNTIL) on the rows: the candidates are found with a plain read and updated by primary key, so only
+     * the claimed rows are locked, without gap locks, and only until the claim commits. The relays of other instances skip
+     * the claimed events until the lease expires.
+     *
+     * If publishing fails, the claim is released and the events are published again by the next relay. If the relay dies
+     * or its lease expires before the delete, the events are published again once the lease expires, so every event is
+     * delivered at least once.
+     *
+     * @param batchSize     Maximum number of events to relay
+     * @param leaseMillis   Time the batch stays claimed by this relay, must cover publishing it
+     * @param publisher     Publisher of the events, in the order they were written. Not called when there is nothing to relay
+     *
+     * @return              Number of events relayed
+     */
+    public int relayOutbox(final int batchSize, final long leaseMillis, final Consumer<List<BookingChange>> publisher) {
+        final String claimId = UUID.randomUUID().toString();
+        final List<BookingChange> events = claimOutbox(batchSize, leaseMillis, claimId);
+
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        final List<Long> outboxIds = new ArrayList<>(events.size());
+        for (BookingChange event : events) {
+            outboxIds.add(event.getChangeId());
+        }
+
+        try {
+            publisher.accept(events);
+        }
+        catch (RuntimeException e) {
+            // Publishing failed, the events are kept and released for the next relay instead of waiting for the lease
+            try {
+                updateClaimedOutbox("UPDATE BOOKING_OUTBOX SET CLAIMED_BY = NULL, CLAIMED_UNTIL = 0", outboxIds, claimId);
+            }
+            catch (HibernateException releaseError) {
+                e.addSuppressed(releaseError);
+            }
+            throw e;
+        }
+
+        updateClaimedOutbox("DELETE FROM BOOKING_OUTBOX", outboxIds, claimId);
+        return events.size();
+    }
+
+    /**
+     * Returns a userId or -1 depending on whether the User with the
+     * specified email (unique) exists.
+     *
+     * @param email     User's email
+     *
+     * @return          userId if the User exists. Else, -1
+     */
+    public int searchUserByEmail(final String email) {
+        return circuitBreaker.execute(() -> {
+            final long allocatedBytes = AllocationMeter.currentThreadAllocatedBytes();
+            final StatelessSession session = sessionRouter.openReadStatelessSession();
+            int id = -1;
+            final List<Integer> results;
+            try {
+                final String hql = "SELECT u.userId FROM User u WHERE u.email = :email";
+                final Query<Integer> query = session.createQuery(hql, Integer.class);
+                query.setParameter("email", email);
+
+                final long queryStart = RequestTimings.start();
+                results = query.list();
+                RequestTimings.stop(RequestTimings.QUERY, queryStart);
+
+                if (results != null && !results.isEmpty()) {
+                    id = results.get(0);
+                }
+            }
+            catch (HibernateException e) {
+                e.printStackTrace();
+                throw new HibernateException(USER_ERROR_SEARCH_HIBERNATE + email, e);
+            } finally {
+                session.close();
+            }
+            recordAllocation(allocatedBytes);
+            return id;
+        });
     }
 
     /**
@@ -249,34 +805,317 @@ public class CampsiteDAO {
      * @throws NotFoundException    Thrown if the Booking does not exist
      */
     public void updateBooking(final int bookingId, final LocalDate arrivalDate, final LocalDate departureDate) throws NotFoundException {
-        final Session session = factory.openSession();
+        retryOnLockConflict(() -> {
+            if (bookingId > 0) {
+                final Session session = sessionRouter.openWriteSession();
+                Transaction transaction = null;
+
+                try {
+                    final long queryStart = RequestTimings.start();
+                    transaction = session.beginTransaction();
+
+                    // The lookup is done on the primary, a replica might not have the Booking yet
+                    Booking booking = (Booking) session.get(Booking.class, bookingId);
+
+                    if (booking == null) {
+                        transaction.rollback();
+                        throw new NotFoundException(BOOKING_ERROR_UPDATE_NON_EXISTENT + bookingId);
+                    }
+
+                    final BookingChange change = new BookingChange(BookingChange.ChangeType.UPDATED, booking.getBookingId(), booking.getUserId(),
+                            arrivalDate, departureDate);
+                    change.setPreviousArrivalDate(booking.getArrivalDate());
+                    change.setPreviousDepartureDate(booking.getDepartureDate());
+
+                    // The nights the Booking keeps are released and claimed again, in the same order as any other claim
+                    session.doWork(connection -> {
+                        releaseNights(connection, bookingId);
+                        claimNights(connection, bookingId, arrivalDate, departureDate);
+                    });
+
+                    booking.setArrivalDate(arrivalDate);
+                    booking.setDepartureDate(departureDate);
+                    session.update(booking);
+                    appendChange(session, change);
+                    RequestTimings.stop(RequestTimings.QUERY, queryStart);
+
+                    // The UPDATE is flushed, and the triggers run, on commit
+                    final long commitStart = RequestTimings.start();
+                    transaction.commit();
+                    RequestTimings.stop(RequestTimings.COMMIT, commitStart);
+                    sessionRouter.recordWrite();
+                } catch (PersistenceException e) {
+                    if (transaction != null) {
+                        transaction.rollback();
+                    }
+                    e.printStackTrace();
+                    throw new HibernateException(BOOKING_ERROR_UPDATE_HIBERNATE + bookingId, e);
+                } finally {
+                    session.close();
+                }
+            }
+            else {
+                throw new NotFoundException(BOOKING_ERROR_UPDATE_NON_EXISTENT + bookingId);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Appends a change to the BOOKING_CHANGES log, on the connection (and therefore in the transaction) of the session.
+     *
+     * @param session   Session of the transaction that modifies the Booking
+     * @param change    Change to append
+     */
+    private void appendChange(final Session session, final BookingChange change) {
+        session.doWork(connection -> {
+            insertChange(connection, INSERT_CHANGE_SQL, change);
+            insertChange(connection, INSERT_OUTBOX_SQL, change);
+        });
+    }
+
+    /**
+     * Inserts a change into the BOOKING_CHANGES log.
+     *
+     * @param connection    Connection to insert the change with
+     * @param change        Change to insert
+     *
+     * @throws SQLException Thrown when the insert fails
+     */
+    private static void insertChange(final Connection connection, final String sql, final BookingChange change) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(sql)) {
+            insert.setString(1, change.getChangeType().name());
+            setNullableInt(insert, 2, change.getBookingId());
+            setNullableInt(insert, 3, change.getUserId());
+            setNullableDate(insert, 4, change.getArrivalDate());
+            setNullableDate(insert, 5, change.getDepartureDate());
+            setNullableDate(insert, 6, change.getPreviousArrivalDate());
+            setNullableDate(insert, 7, change.getPreviousDepartureDate());
+            insert.setLong(8, change.getChangedAtMillis());
+            insert.executeUpdate();
+        }
+    }
+
+    private static void setNullableInt(final PreparedStatement statement, final int index, final Integer value) throws SQLException {
+        if (value != null) {
+            statement.setInt(index, value);
+        }
+        else {
+            statement.setNull(index, Types.INTEGER);
+        }
+    }
+
+    private static void setNullableDate(final PreparedStatement statement, final int index, final LocalDate value) throws SQLException {
+        if (value != null) {
+            statement.setDate(index, Date.valueOf(value));
+        }
+        else {
+            statement.setNull(index, Types.DATE);
+        }
+    }
+
+    /**
+     * Claims the oldest events of the outbox that are not claimed, or whose claim expired, for leaseMillis.
+     *
+     * @return  Events claimed, in the order they were written
+     */
+    private List<BookingChange> claimOutbox(final int batchSize, final long leaseMillis, final String claimId) {
         Transaction transaction = null;
+        final Session session = sessionRouter.openWriteSession();
+        try {
+            transaction = session.beginTransaction();
+            final long nowMillis = System.currentTimeMillis();
 
-        if (bookingId > 0 && searchBookingById(bookingId)) {
-            try {
-                transaction = session.beginTransaction();
-                Booking booking = (Booking) session.get(Booking.class, bookingId);
+            // Plain read, the candidates are not locked
+            final List<?> candidates = session.createNativeQuery("SELECT OUTBOX_ID FROM BOOKING_OUTBOX WHERE CLAIMED_UNTIL < :now " +
+                    "ORDER BY OUTBOX_ID LIMIT " + batchSize)
+                    .setParameter("now", nowMillis)
+                    .list();
 
-                if (booking == null) {
-                    throw new NotFoundException(BOOKING_ERROR_UPDATE_NON_EXISTENT);
+            List<BookingChange> events = new ArrayList<>();
+            if (!candidates.isEmpty()) {
+                final List<Long> outboxIds = new ArrayList<>(candidates.size());
+                for (Object candidate : candidates) {
+                    outboxIds.add(((Number) candidate).longValue());
                 }
 
-                booking.setArrivalDate(arrivalDate);
-                booking.setDepartureDate(departureDate);
-                session.update(booking);
-                transaction.commit();
-            } catch (PersistenceException e) {
-                if (transaction != null) {
-                    transaction.rollback();
+                // A candidate claimed by another relay in the meantime fails the CLAIMED_UNTIL check and is left to it
+                session.createNativeQuery("UPDATE BOOKING_OUTBOX SET CLAIMED_BY = :claimId, CLAIMED_UNTIL = :claimedUntil " +
+                        "WHERE OUTBOX_ID IN (:outboxIds) AND CLAIMED_UNTIL < :now")
+                        .setParameter("claimId", claimId)
+                        .setParameter("claimedUntil", nowMillis + leaseMillis)
+                        .setParameterList("outboxIds", outboxIds)
+                        .setParameter("now", nowMillis)
+                        .executeUpdate();
+
+                final NativeQuery<Object[]> query = session.createNativeQuery(SELECT_OUTBOX_SQL +
+                        "WHERE OUTBOX_ID IN (:outboxIds) AND CLAIMED_BY = :claimId ORDER BY OUTBOX_ID");
+                query.setParameterList("outboxIds", outboxIds);
+                query.setParameter("claimId", claimId);
+                events = toBookingChanges(query.list());
+            }
+
+            transaction.commit();
+            return events;
+        }
+        catch (HibernateException e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            throw new HibernateException(OUTBOX_ERROR_HIBERNATE, e);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Runs the UPDATE or DELETE statement on the events of the outbox that are still claimed by claimId.
+     */
+    private void updateClaimedOutbox(final String statement, final List<Long> outboxIds, final String claimId) {
+        Transaction transaction = null;
+        final Session session = sessionRouter.openWriteSession();
+        try {
+            transaction = session.beginTransaction();
+            session.createNativeQuery(statement + " WHERE OUTBOX_ID IN (:outboxIds) AND CLAIMED_BY = :claimId")
+                    .setParameterList("outboxIds", outboxIds)
+                    .setParameter("claimId", claimId)
+                    .executeUpdate();
+            transaction.commit();
+        }
+        catch (HibernateException e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            throw new HibernateException(OUTBOX_ERROR_HIBERNATE, e);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Maps the rows selected by SELECT_CHANGES_SQL to BookingChange objects.
+     *
+     * @param rows  Rows selected by SELECT_CHANGES_SQL
+     *
+     * @return      List of BookingChange objects
+     */
+    private static List<BookingChange> toBookingChanges(final List<Object[]> rows) {
+        final List<BookingChange> changes = new ArrayList<>(rows.size());
+
+        for (Object[] row : rows) {
+            final BookingChange change = new BookingChange();
+            change.setChangeId(((Number) row[0]).longValue());
+            change.setChangeType(BookingChange.ChangeType.valueOf((String) row[1]));
+            change.setBookingId(row[2] != null ? ((Number) row[2]).intValue() : null);
+            change.setUserId(row[3] != null ? ((Number) row[3]).intValue() : null);
+            change.setArrivalDate(toLocalDate(row[4]));
+            change.setDepartureDate(toLocalDate(row[5]));
+            change.setPreviousArrivalDate(toLocalDate(row[6]));
+            change.setPreviousDepartureDate(toLocalDate(row[7]));
+            change.setChangedAtMillis(((Number) row[8]).longValue());
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    private static LocalDate toLocalDate(final Object value) {
+        return value != null ? ((Date) value).toLocalDate() : null;
+    }
+
+    /**
+     * Claims the nights from arrivalDate to the night before departureDate for the Booking. The rows are inserted in
+     * ascending order, the order every transaction claims nights in, which keeps concurrent claims from deadlocking
+     * in most cases. A night already claimed by another Booking fails the insert with a ConstraintViolationException.
+     *
+     * @param connection    Connection of the transaction that writes the Booking
+     * @param bookingId     bookingId of the Booking
+     * @param arrivalDate   First night claimed
+     * @param departureDate Day after the last night claimed
+     *
+     * @throws SQLException Thrown when a night cannot be claimed
+     */
+    private static void claimNights(final Connection connection, final int bookingId, final LocalDate arrivalDate,
+                                    final LocalDate departureDate) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_NIGHT_SQL)) {
+            // One statement per night rather than a batch, so that a conflict is reported with its own SQLState
+            for (LocalDate night = arrivalDate; night.isBefore(departureDate); night = night.plusDays(1)) {
+                insert.setDate(1, Date.valueOf(night));
+                insert.setInt(2, bookingId);
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Releases the nights claimed by the Booking.
+     *
+     * @param connection    Connection of the transaction that modifies the Booking
+     * @param bookingId     bookingId of the Booking
+     *
+     * @throws SQLException Thrown when the nights cannot be deleted
+     */
+    private static void releaseNights(final Connection connection, final int bookingId) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM CAMPSITE_NIGHTS WHERE BOOKING_ID = ?")) {
+            delete.setInt(1, bookingId);
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * Runs a transaction again when it was rolled back by a deadlock or a lock wait timeout, after a backoff that
+     * doubles with each attempt and is randomized so that the transactions that collided do not collide again.
+     * Any other failure, or a lock conflict on the last attempt, is thrown to the caller. Each attempt goes through
+     * the CircuitBreaker on its own, so the backoff is not counted in the duration of a call.
+     *
+     * @param transaction   Transaction to run, opening its own session
+     *
+     * @return              Result of the transaction
+     *
+     * @throws E            Thrown by the transaction
+     */
+    private <T, E extends Exception> T retryOnLockConflict(final CircuitBreaker.DatabaseCall<T, E> transaction) throws E {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return circuitBreaker.execute(transaction);
+            }
+            catch (PersistenceException e) {
+                if (attempt == MAX_LOCK_ATTEMPTS || !isLockConflict(e)) {
+                    throw e;
+                }
+
+                lockRetries.increment();
+                final long backoffMillis = LOCK_RETRY_BACKOFF_MILLIS << (attempt - 1);
+                try {
+                    Thread.sleep(backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis));
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
                 }
-                e.printStackTrace();
-                throw new HibernateException(BOOKING_ERROR_UPDATE_HIBERNATE + bookingId);
-            } finally {
-                session.close();
             }
         }
-        else {
-            throw new NotFoundException(BOOKING_ERROR_UPDATE_NON_EXISTENT + bookingId);
+    }
+
+    private static boolean isLockConflict(final Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LockAcquisitionException || cause instanceof PessimisticLockException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the bytes allocated by the current thread since allocatedBytesBefore was read, including opening the session
+     * and mapping the results, to the read allocation of the current request.
+     *
+     * @param allocatedBytesBefore  Bytes allocated by the current thread before the read-only query
+     */
+    private static void recordAllocation(final long allocatedBytesBefore) {
+        if (allocatedBytesBefore >= 0) {
+            RequestTimings.addReadAllocation(AllocationMeter.currentThreadAllocatedBytes() - allocatedBytesBefore);
         }
     }
 }
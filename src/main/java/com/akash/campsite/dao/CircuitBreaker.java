@@ -0,0 +1,253 @@
+package com.akash.campsite.dao;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.exception.JDBCConnectionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import static com.akash.campsite.utility.CampsiteMessagesUtil.DATABASE_ERROR_UNAVAILABLE;
+
+/**
+ * Circuit breaker around the database calls of the CampsiteDAO, so that requests fail fast instead of piling up
+ * while the database is down or stalled.
+ *
+ * The outcome of the last windowSize calls is kept. While CLOSED, the circuit opens when at least minimumCalls are
+ * in the window and either the rate of failed calls or the rate of slow calls reaches its threshold. Only connection
+ * errors and timeouts count as failures; errors caused by the request itself (e.g. an overlapping Booking rejected by
+ * a constraint) and lock conflicts (deadlocks, lock wait timeouts) show that the database is working. A call is only
+ * recorded once it returns, so the JDBC connection, socket and query timeouts of hibernate.cfg.xml bound every call
+ * to a small multiple of campsite.circuit.slow-call-ms: a stalled database shows up as slow or failed calls. While OPEN, every call is rejected with a CircuitOpenException. After
+ * openMillis, the circuit is HALF_OPEN: halfOpenCalls trial calls are let through, the circuit closes if they all succeed
+ * in time and opens again otherwise.
+ */
+@Component
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Database call protected by the CircuitBreaker.
+     *
+     * @param <T>   Type of the result of the call
+     * @param <E>   Checked exception thrown by the call, if any
+     */
+    @FunctionalInterface
+    public interface DatabaseCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter rejectedCalls;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private long openedAtMillis;
+
+    // Ring buffer of the outcomes of the last calls while CLOSED
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int next = 0;
+    private int recordedCalls = 0;
+    private int failedCount = 0;
+    private int slowCount = 0;
+
+    // Trial calls let through and trial calls that succeeded while HALF_OPEN
+    private int halfOpenPermitted = 0;
+    private int halfOpenSucceeded = 0;
+
+    @Autowired
+    public CircuitBreaker(final Environment environment, final MeterRegistry meterRegistry) {
+        this(environment.getProperty("campsite.circuit.window-size", Integer.class, 50),
+                environment.getProperty("campsite.circuit.minimum-calls", Integer.class, 10),
+                environment.getProperty("campsite.circuit.failure-rate-threshold", Double.class, 0.5),
+                environment.getProperty("campsite.circuit.slow-call-rate-threshold", Double.class, 0.8),
+                environment.getProperty("campsite.circuit.slow-call-ms", Long.class, 2000L),
+                environment.getProperty("campsite.circuit.open-ms", Long.class, 10000L),
+                environment.getProperty("campsite.circuit.half-open-calls", Integer.class, 3),
+                meterRegistry);
+    }
+
+    /**
+     * @param windowSize            Number of calls whose outcome is kept while CLOSED
+     * @param minimumCalls          Number of calls needed in the window before the circuit can open
+     * @param failureRateThreshold  Rate of failed calls in the window at which the circuit opens
+     * @param slowCallRateThreshold Rate of slow calls in the window at which the circuit opens
+     * @param slowCallMillis        Duration above which a call is slow
+     * @param openMillis            How long calls are rejected once the circuit opens
+     * @param halfOpenCalls         Number of trial calls needed to close the circuit
+     * @param meterRegistry         Registry the circuit metrics are published to
+     */
+    public CircuitBreaker(final int windowSize, final int minimumCalls, final double failureRateThreshold, final double slowCallRateThreshold,
+                          final long slowCallMillis, final long openMillis, final int halfOpenCalls, final MeterRegistry meterRegistry) {
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1_000_000;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+
+        this.meterRegistry = meterRegistry;
+        rejectedCalls = meterRegistry.counter("campsite.dao.circuit.rejected");
+        meterRegistry.gauge("campsite.dao.circuit.state", this, breaker -> breaker.getState().ordinal());
+    }
+
+    /**
+     * Runs the call if the circuit lets it through and records its outcome.
+     *
+     * @param call                  Database call
+     *
+     * @return                      Result of the call
+     *
+     * @throws CircuitOpenException Thrown without running the call when the circuit is open
+     * @throws E                    Exception thrown by the call
+     */
+    public <T, E extends Exception> T execute(final DatabaseCall<T, E> call) throws E {
+        acquirePermission();
+
+        final long start = System.nanoTime();
+        try {
+            final T result = call.call();
+            onResult(false, System.nanoTime() - start);
+            return result;
+        }
+        catch (Exception e) {
+            onResult(isFailure(e), System.nanoTime() - start);
+            throw e;
+        }
+        catch (Error e) {
+            onResult(true, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @param e     Exception thrown by a database call
+     *
+     * @return      Boolean indicating whether the exception shows that the database is unavailable or stalled
+     */
+    static boolean isFailure(final Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JDBCConnectionException
+                    || cause instanceof QueryTimeoutException
+                    || cause instanceof javax.persistence.QueryTimeoutException
+                    || cause instanceof SQLTimeoutException
+                    || cause instanceof SQLTransientConnectionException
+                    || cause instanceof SQLNonTransientConnectionException
+                    || cause instanceof SQLRecoverableException
+                    || cause instanceof ConnectException
+                    || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void acquirePermission() {
+        if (state == State.OPEN) {
+            final long retryAfterMillis = openedAtMillis + openMillis - System.currentTimeMillis();
+
+            if (retryAfterMillis > 0) {
+                rejectedCalls.increment();
+                throw new CircuitOpenException(DATABASE_ERROR_UNAVAILABLE, retryAfterMillis);
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermitted >= halfOpenCalls) {
+                rejectedCalls.increment();
+                throw new CircuitOpenException(DATABASE_ERROR_UNAVAILABLE, openMillis);
+            }
+            halfOpenPermitted++;
+        }
+    }
+
+    private synchronized void onResult(final boolean failed, final long durationNanos) {
+        final boolean slow = durationNanos > slowCallNanos;
+
+        switch (state) {
+            case CLOSED:
+                record(failed, slow);
+
+                if (recordedCalls >= minimumCalls
+                        && ((double) failedCount / recordedCalls >= failureRateThreshold || (double) slowCount / recordedCalls >= slowCallRateThreshold)) {
+                    transitionTo(State.OPEN);
+                }
+                break;
+            case HALF_OPEN:
+                if (failed || slow) {
+                    transitionTo(State.OPEN);
+                }
+                else if (++halfOpenSucceeded >= halfOpenCalls) {
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            default:
+                // Calls let through before the circuit opened, their outcome is already reflected by the state
+        }
+    }
+
+    private void record(final boolean failed, final boolean slow) {
+        if (recordedCalls == windowSize) {
+            failedCount -= failedCalls[next] ? 1 : 0;
+            slowCount -= slowCalls[next] ? 1 : 0;
+        }
+        else {
+            recordedCalls++;
+        }
+
+        failedCalls[next] = failed;
+        slowCalls[next] = slow;
+        failedCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        next = (next + 1) % windowSize;
+    }
+
+    private void transitionTo(final State newState) {
+        meterRegistry.counter("campsite.dao.circuit.transitions", "from", state.name(), "to", newState.name()).increment();
+        state = newState;
+
+        if (newState == State.OPEN) {
+            openedAtMillis = System.currentTimeMillis();
+        }
+        else if (newState == State.HALF_OPEN) {
+            halfOpenPermitted = 0;
+            halfOpenSucceeded = 0;
+        }
+        else {
+            next = 0;
+            recordedCalls = 0;
+            failedCount = 0;
+            slowCount = 0;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.akash.campsite.dao;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Thrown instead of calling the database while the CircuitBreaker is open.
+ */
+public class CircuitOpenException extends HibernateException {
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(final String message, final long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return  Milliseconds until the CircuitBreaker lets a trial call through
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
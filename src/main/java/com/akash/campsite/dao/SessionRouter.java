@@ -0,0 +1,306 @@
+package com.akash.campsite.dao;
+
+import com.akash.campsite.utility.ClientContext;
+import com.akash.campsite.utility.RequestTimings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+
+/**
+ * Routes Hibernate sessions between the primary database and an optional read replica.
+ *
+ * Mutations always go to the primary. Reads go to the replica unless no replica is configured, the replica
+ * is lagging more than the configured maximum, or the client making the request wrote recently (read-your-writes),
+ * in which case they go to the primary as well. The time until which a client reads from the primary is carried by the
+ * client (see ClientContext), so no state is kept per client and the pin holds on every instance.
+ *
+ * Both databases are configured by hibernate.cfg.xml. Connection settings can be overridden per database with
+ * campsite.datasource.primary.* and campsite.datasource.replica.* properties (e.g.
+ * campsite.datasource.replica.hibernate.connection.url). The replica is only used when its URL is set.
+ */
+@Component
+public class SessionRouter {
+
+    private static final String PRIMARY_PREFIX = "campsite.datasource.primary.";
+
+    private static final String REPLICA_PREFIX = "campsite.datasource.replica.";
+
+    private static final String[] OVERRIDABLE_SETTINGS = {
+            "hibernate.connection.url",
+            "hibernate.connection.username",
+            "hibernate.connection.password",
+            "hibernate.connection.driver_class",
+            "hibernate.dialect",
+            "hibernate.hbm2ddl.auto",
+            "hibernate.hbm2ddl.import_files"
+    };
+
+    // Replica lag reported when the heartbeat cannot be read from the replica, or was not read recently
+    private static final long UNKNOWN_LAG = -1;
+
+    // Heartbeat intervals after which the last measurement of the lag no longer counts, e.g. when the heartbeat stopped
+    private static final int MEASUREMENT_EXPIRY_HEARTBEATS = 3;
+
+    private final SessionFactory primaryFactory;
+    private final SessionFactory replicaFactory;
+
+    private final long readYourWritesMillis;
+    private final long maxReplicaLagMillis;
+    private final long measurementExpiryMillis;
+
+    private final Counter primaryReads;
+    private final Counter replicaReads;
+
+    // Until the first measurement the replica is not known to be fresh, reads go to the primary
+    private volatile long replicaLagMillis = UNKNOWN_LAG;
+    private volatile long replicaLagMeasuredAtMillis = 0;
+
+    @Autowired
+    public SessionRouter(final Environment environment, final MeterRegistry meterRegistry) {
+        this(buildConfiguration(environment, PRIMARY_PREFIX),
+                environment.containsProperty(REPLICA_PREFIX + "hibernate.connection.url") ? buildConfiguration(environment, REPLICA_PREFIX) : null,
+                environment.getProperty("campsite.datasource.read-your-writes-ms", Long.class, 5000L),
+                environment.getProperty("campsite.datasource.max-replica-lag-ms", Long.class, 10000L),
+                environment.getProperty("campsite.datasource.heartbeat-interval-ms", Long.class, 1000L),
+                meterRegistry);
+    }
+
+    /**
+     * @param primaryConfiguration    Hibernate configuration of the primary database
+     * @param replicaConfiguration    Hibernate configuration of the read replica, or null if there is no replica
+     * @param readYourWritesMillis    How long a client's reads are pinned to the primary after it writes
+     * @param maxReplicaLagMillis     Replica lag above which reads are sent to the primary
+     * @param heartbeatIntervalMillis Interval at which the replica lag is measured
+     * @param meterRegistry           Registry the routing metrics are published to
+     */
+    public SessionRouter(final Configuration primaryConfiguration, final Configuration replicaConfiguration, final long readYourWritesMillis,
+                         final long maxReplicaLagMillis, final long heartbeatIntervalMillis, final MeterRegistry meterRegistry) {
+        try {
+            primaryFactory = primaryConfiguration.buildSessionFactory();
+            replicaFactory = replicaConfiguration != null ? replicaConfiguration.buildSessionFactory() : null;
+        } catch (Throwable ex) {
+            System.err.println("Failed to create sessionFactory object." + ex);
+            throw new ExceptionInInitializerError(ex);
+        }
+
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.maxReplicaLagMillis = maxReplicaLagMillis;
+        this.measurementExpiryMillis = MEASUREMENT_EXPIRY_HEARTBEATS * heartbeatIntervalMillis;
+
+        primaryReads = meterRegistry.counter("campsite.datasource.reads", "target", "primary");
+        replicaReads = meterRegistry.counter("campsite.datasource.reads", "target", "replica");
+        meterRegistry.gauge("campsite.datasource.replica.lag", this, SessionRouter::getReplicaLagMillis);
+    }
+
+    /**
+     * Opens a session on the primary database. Used for every operation that modifies data.
+     *
+     * @return  Session on the primary database
+     */
+    public Session openWriteSession() {
+        return acquireConnection(primaryFactory.openSession());
+    }
+
+    /**
+     * Opens a stateless session on the primary database, for reads that cannot tolerate replication lag.
+     *
+     * @return  StatelessSession on the primary database
+     */
+    public StatelessSession openPrimaryStatelessSession() {
+        return acquireConnection(primaryFactory.openStatelessSession());
+    }
+
+    /**
+     * Opens a stateless session for a read-only operation, on the replica when it is safe to do so. Stateless sessions
+     * have no persistence context, so query results are neither tracked nor snapshotted for dirty-checking.
+     *
+     * @return  StatelessSession on the replica or on the primary database
+     */
+    public StatelessSession openReadStatelessSession() {
+        return acquireConnection(getReadFactory().openStatelessSession());
+    }
+
+    /**
+     * Records that the current client has just modified data so that its reads are served by the primary
+     * until the replica has had time to catch up.
+     */
+    public void recordWrite() {
+        if (replicaFactory != null) {
+            ClientContext.pinReadsToPrimary(System.currentTimeMillis() + readYourWritesMillis);
+        }
+    }
+
+    /**
+     * Writes a heartbeat to the primary and reads it back from the replica to measure how far the replica lags behind.
+     * Reads are sent to the primary while the lag is above the maximum or cannot be measured, and once the last measurement
+     * is older than a few heartbeat intervals, e.g. when the primary could not be written to.
+     */
+    @Scheduled(fixedDelayString = "${campsite.datasource.heartbeat-interval-ms:1000}")
+    public void measureReplicaLag() {
+        if (replicaFactory == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        final Session primarySession = primaryFactory.openSession();
+        Transaction transaction = null;
+        try {
+            transaction = primarySession.beginTransaction();
+            primarySession.createNativeQuery("UPDATE REPLICA_HEARTBEAT SET BEAT_MILLIS = :now WHERE HEARTBEAT_ID = 1")
+                    .setParameter("now", now)
+                    .executeUpdate();
+            transaction.commit();
+        }
+        catch (HibernateException e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            // The primary being unavailable says nothing about the replica, the last measurement stands until it expires
+            e.printStackTrace();
+            return;
+        } finally {
+            primarySession.close();
+        }
+
+        final Session replicaSession = replicaFactory.openSession();
+        try {
+            final List<?> results = replicaSession.createNativeQuery("SELECT BEAT_MILLIS FROM REPLICA_HEARTBEAT WHERE HEARTBEAT_ID = 1").list();
+
+            if (results.isEmpty() || results.get(0) == null) {
+                replicaLagMillis = UNKNOWN_LAG;
+            }
+            else {
+                replicaLagMillis = Math.max(0, now - ((Number) results.get(0)).longValue());
+                replicaLagMeasuredAtMillis = now;
+            }
+        }
+        catch (HibernateException e) {
+            e.printStackTrace();
+            replicaLagMillis = UNKNOWN_LAG;
+        } finally {
+            replicaSession.close();
+        }
+    }
+
+    /**
+     * @return  Last measured replica lag in milliseconds, or -1 if it could not be measured or the measurement expired
+     */
+    public long getReplicaLagMillis() {
+        final long lag = replicaLagMillis;
+
+        if (lag == UNKNOWN_LAG || System.currentTimeMillis() - replicaLagMeasuredAtMillis > measurementExpiryMillis) {
+            return UNKNOWN_LAG;
+        }
+        return lag;
+    }
+
+    /**
+     * @return  Boolean indicating whether a read replica is configured
+     */
+    public boolean isReplicaEnabled() {
+        return replicaFactory != null;
+    }
+
+    @PreDestroy
+    public void close() {
+        primaryFactory.close();
+
+        if (replicaFactory != null) {
+            replicaFactory.close();
+        }
+    }
+
+    /**
+     * Picks the database a read should go to and counts the decision.
+     *
+     * @return  SessionFactory of the database to read from
+     */
+    private SessionFactory getReadFactory() {
+        if (replicaFactory == null || isCurrentClientPinned() || !isReplicaFresh()) {
+            primaryReads.increment();
+            return primaryFactory;
+        }
+
+        replicaReads.increment();
+        return replicaFactory;
+    }
+
+    /**
+     * @return  Boolean indicating whether the current client wrote recently enough that it must read from the primary
+     */
+    private boolean isCurrentClientPinned() {
+        final long remainingMillis = ClientContext.getReadPrimaryUntilMillis() - System.currentTimeMillis();
+
+        // The time comes from the client, a pin longer than any this instance grants is not honored
+        return remainingMillis >= 0 && remainingMillis <= readYourWritesMillis;
+    }
+
+    /**
+     * @return  Boolean indicating whether the replica lag was measured recently and is below the maximum
+     */
+    private boolean isReplicaFresh() {
+        final long lag = getReplicaLagMillis();
+        return lag != UNKNOWN_LAG && lag <= maxReplicaLagMillis;
+    }
+
+    /**
+     * Loads hibernate.cfg.xml and applies the overrides found in the environment under the given prefix.
+     *
+     * @param environment   Spring environment
+     * @param prefix        Property prefix of the database
+     *
+     * @return              Hibernate configuration of the database
+     */
+    private static Configuration buildConfiguration(final Environment environment, final String prefix) {
+        final Configuration configuration = new Configuration().configure();
+
+        for (String setting : OVERRIDABLE_SETTINGS) {
+            final String value = environment.getProperty(prefix + setting);
+
+            if (value != null) {
+                configuration.setProperty(setting, value);
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * Acquires the JDBC connection of a session that was just opened, and times the wait as the SESSION phase. Hibernate
+     * opens sessions without a connection and acquires it at the first query or transaction, so timing the opening alone
+     * would not show a pool running out of connections.
+     *
+     * @param session               Session that was just opened
+     *
+     * @return                      The session, holding its connection until the end of its transaction or until it is closed
+     *
+     * @throws HibernateException   Thrown when no connection can be acquired, the session is then closed
+     */
+    private static <S extends SharedSessionContract> S acquireConnection(final S session) throws HibernateException {
+        final long start = RequestTimings.start();
+        try {
+            ((SharedSessionContractImplementor) session).connection();
+        }
+        catch (RuntimeException e) {
+            ((SharedSessionContractImplementor) session).close();
+            throw e;
+        } finally {
+            RequestTimings.stop(RequestTimings.SESSION, start);
+        }
+        return session;
+    }
+}
@@ -0,0 +1,73 @@
+package com.akash.campsite.pojo;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Availability of the campsite over a range of days, as a bitmap. Bit i is set when the night starting on
+ * day startEpochDay + i is free.
+ */
+public class Availability {
+
+    private final long startEpochDay;
+    private final int days;
+    private final BitSet freeDays;
+
+    // Time (millis) of the oldest data a stale availability was built from, 0 when the availability was read from the database
+    private final long staleSinceMillis;
+
+    public Availability(long startEpochDay, int days, BitSet freeDays) {
+        this(startEpochDay, days, freeDays, 0);
+    }
+
+    public Availability(long startEpochDay, int days, BitSet freeDays, long staleSinceMillis) {
+        this.startEpochDay = startEpochDay;
+        this.days = days;
+        this.freeDays = freeDays;
+        this.staleSinceMillis = staleSinceMillis;
+    }
+
+    public long getStartEpochDay() {
+        return startEpochDay;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public BitSet getFreeDays() {
+        return freeDays;
+    }
+
+    public boolean isStale() {
+        return staleSinceMillis != 0;
+    }
+
+    public long getStaleSinceMillis() {
+        return staleSinceMillis;
+    }
+
+    public boolean isFree(final LocalDate date) {
+        final long index = date.toEpochDay() - startEpochDay;
+        return index >= 0 && index < days && freeDays.get((int) index);
+    }
+
+    /**
+     * Returns the runs of consecutive free days as [start, end) ranges, in order.
+     *
+     * @return  List of DateRange objects, one per run of free days
+     */
+    public List<DateRange> getFreeIntervals() {
+        final List<DateRange> intervals = new ArrayList<>();
+        int start = freeDays.nextSetBit(0);
+
+        while (start >= 0 && start < days) {
+            final int end = Math.min(freeDays.nextClearBit(start), days);
+            intervals.add(new DateRange(startEpochDay + start, startEpochDay + end));
+            start = freeDays.nextSetBit(end);
+        }
+        return intervals;
+    }
+}
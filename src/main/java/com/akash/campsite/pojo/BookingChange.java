@@ -0,0 +1,112 @@
+package com.akash.campsite.pojo;
+
+import java.time.LocalDate;
+
+/**
+ * A change made to the BOOKINGS table, as recorded in the BOOKING_CHANGES log. For an update, the arrival and
+ * departure dates are the new dates and the previous dates are the ones the Booking had before the update.
+ * For a cancellation, the arrival and departure dates are the dates of the cancelled Booking.
+ */
+public class BookingChange {
+
+    public enum ChangeType {
+        CREATED,
+        UPDATED,
+        CANCELLED,
+        // Many Bookings changed at once (e.g. an import), anything derived from the Bookings must be rebuilt
+        RESET
+    }
+
+    private long changeId;
+    private ChangeType changeType;
+    private Integer bookingId;
+    private Integer userId;
+    private LocalDate arrivalDate;
+    private LocalDate departureDate;
+    private LocalDate previousArrivalDate;
+    private LocalDate previousDepartureDate;
+    private long changedAtMillis;
+
+    public BookingChange() {}
+
+    public BookingChange(ChangeType changeType, Integer bookingId, Integer userId, LocalDate arrivalDate, LocalDate departureDate) {
+        this.changeType = changeType;
+        this.bookingId = bookingId;
+        this.userId = userId;
+        this.arrivalDate = arrivalDate;
+        this.departureDate = departureDate;
+        this.changedAtMillis = System.currentTimeMillis();
+    }
+
+    public long getChangeId() {
+        return changeId;
+    }
+
+    public void setChangeId(long changeId) {
+        this.changeId = changeId;
+    }
+
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+
+    public void setChangeType(ChangeType changeType) {
+        this.changeType = changeType;
+    }
+
+    public Integer getBookingId() {
+        return bookingId;
+    }
+
+    public void setBookingId(Integer bookingId) {
+        this.bookingId = bookingId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public LocalDate getArrivalDate() {
+        return arrivalDate;
+    }
+
+    public void setArrivalDate(LocalDate arrivalDate) {
+        this.arrivalDate = arrivalDate;
+    }
+
+    public LocalDate getDepartureDate() {
+        return departureDate;
+    }
+
+    public void setDepartureDate(LocalDate departureDate) {
+        this.departureDate = departureDate;
+    }
+
+    public LocalDate getPreviousArrivalDate() {
+        return previousArrivalDate;
+    }
+
+    public void setPreviousArrivalDate(LocalDate previousArrivalDate) {
+        this.previousArrivalDate = previousArrivalDate;
+    }
+
+    public LocalDate getPreviousDepartureDate() {
+        return previousDepartureDate;
+    }
+
+    public void setPreviousDepartureDate(LocalDate previousDepartureDate) {
+        this.previousDepartureDate = previousDepartureDate;
+    }
+
+    public long getChangedAtMillis() {
+        return changedAtMillis;
+    }
+
+    public void setChangedAtMillis(long changedAtMillis) {
+        this.changedAtMillis = changedAtMillis;
+    }
+}
@@ -0,0 +1,87 @@
+package com.akash.campsite.pojo;
+
+import java.time.LocalDate;
+
+/**
+ * A Booking together with the User who made it, as written to and read from a backup, so that a backup can be
+ * restored into an empty database. The User fields are null when read from a backup that only has the Booking fields,
+ * the User must then already exist.
+ */
+public class BookingRecord {
+
+    private int bookingId;
+    private int userId;
+    private LocalDate arrivalDate;
+    private LocalDate departureDate;
+    private String firstName;
+    private String lastName;
+    private String email;
+
+    public BookingRecord() {}
+
+    public BookingRecord(int bookingId, int userId, LocalDate arrivalDate, LocalDate departureDate, String firstName, String lastName, String email) {
+        this.bookingId = bookingId;
+        this.userId = userId;
+        this.arrivalDate = arrivalDate;
+        this.departureDate = departureDate;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+    }
+
+    public int getBookingId() {
+        return bookingId;
+    }
+
+    public void setBookingId(int bookingId) {
+        this.bookingId = bookingId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public LocalDate getArrivalDate() {
+        return arrivalDate;
+    }
+
+    public void setArrivalDate(LocalDate arrivalDate) {
+        this.arrivalDate = arrivalDate;
+    }
+
+    public LocalDate getDepartureDate() {
+        return departureDate;
+    }
+
+    public void setDepartureDate(LocalDate departureDate) {
+        this.departureDate = departureDate;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+}
@@ -0,0 +1,38 @@
+package com.akash.campsite.pojo;
+
+import java.time.LocalDate;
+
+/**
+ * Lightweight projection of a range of nights, stored as epoch days. The arrival day is included
+ * and the departure day is excluded, like the nights of a Booking.
+ */
+public class DateRange {
+
+    private final long arrivalEpochDay;
+    private final long departureEpochDay;
+
+    public DateRange(long arrivalEpochDay, long departureEpochDay) {
+        this.arrivalEpochDay = arrivalEpochDay;
+        this.departureEpochDay = departureEpochDay;
+    }
+
+    public DateRange(LocalDate arrivalDate, LocalDate departureDate) {
+        this(arrivalDate.toEpochDay(), departureDate.toEpochDay());
+    }
+
+    public long getArrivalEpochDay() {
+        return arrivalEpochDay;
+    }
+
+    public long getDepartureEpochDay() {
+        return departureEpochDay;
+    }
+
+    public LocalDate getArrivalDate() {
+        return LocalDate.ofEpochDay(arrivalEpochDay);
+    }
+
+    public LocalDate getDepartureDate() {
+        return LocalDate.ofEpochDay(departureEpochDay);
+    }
+}
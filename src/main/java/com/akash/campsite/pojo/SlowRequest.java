@@ -0,0 +1,55 @@
+package com.akash.campsite.pojo;
+
+import java.util.Map;
+
+/**
+ * A request that took longer than the slow request threshold, with the time spent in each of its phases.
+ */
+public class SlowRequest {
+
+    private final long startedAtMillis;
+
+    private final String method;
+
+    private final String uri;
+
+    private final int status;
+
+    private final double totalMillis;
+
+    // Phase -> milliseconds spent in the phase
+    private final Map<String, Double> phaseMillis;
+
+    public SlowRequest(long startedAtMillis, String method, String uri, int status, double totalMillis, Map<String, Double> phaseMillis) {
+        this.startedAtMillis = startedAtMillis;
+        this.method = method;
+        this.uri = uri;
+        this.status = status;
+        this.totalMillis = totalMillis;
+        this.phaseMillis = phaseMillis;
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public Map<String, Double> getPhaseMillis() {
+        return phaseMillis;
+    }
+}
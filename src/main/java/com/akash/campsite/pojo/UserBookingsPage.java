@@ -0,0 +1,27 @@
+package com.akash.campsite.pojo;
+
+import java.util.List;
+
+/**
+ * Page of a User's Bookings, ordered by (arrivalDate, bookingId), with the cursor of the following page. The cursor is
+ * null on the last page.
+ */
+public class UserBookingsPage {
+
+    private final List<Booking> bookings;
+
+    private final String next;
+
+    public UserBookingsPage(List<Booking> bookings, String next) {
+        this.bookings = bookings;
+        this.next = next;
+    }
+
+    public List<Booking> getBookings() {
+        return bookings;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,92 @@
+package com.akash.campsite.pojo;
+
+import java.time.LocalDate;
+
+/**
+ * A request to be notified of, or to automatically book, a date range when it becomes free.
+ */
+public class WaitlistEntry {
+
+    public enum Status {
+        WAITING,
+        // The date range became free and the user was offered to book it
+        OFFERED,
+        // The date range became free and was booked automatically
+        BOOKED,
+        // The date range can no longer be booked
+        EXPIRED
+    }
+
+    private final String waitlistId;
+    private final long registrationOrder;
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+    private final DateRange dateRange;
+    private final boolean autoBook;
+
+    private volatile Status status = Status.WAITING;
+    private volatile int bookingId = -1;
+
+    public WaitlistEntry(String waitlistId, long registrationOrder, String firstName, String lastName, String email, DateRange dateRange, boolean autoBook) {
+        this.waitlistId = waitlistId;
+        this.registrationOrder = registrationOrder;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.dateRange = dateRange;
+        this.autoBook = autoBook;
+    }
+
+    public String getWaitlistId() {
+        return waitlistId;
+    }
+
+    public long getRegistrationOrder() {
+        return registrationOrder;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public DateRange getDateRange() {
+        return dateRange;
+    }
+
+    public LocalDate getArrivalDate() {
+        return dateRange.getArrivalDate();
+    }
+
+    public LocalDate getDepartureDate() {
+        return dateRange.getDepartureDate();
+    }
+
+    public boolean isAutoBook() {
+        return autoBook;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getBookingId() {
+        return bookingId;
+    }
+
+    public void setBookingId(int bookingId) {
+        this.bookingId = bookingId;
+    }
+}
@@ -0,0 +1,78 @@
+package com.akash.campsite.service;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Formats the availability of the campsite can be returned in.
+ *
+ *  -DATE_LIST: the default, a list of the available dates (YYYY-MM-DD), e.g. [2018-10-01, 2018-10-02]
+ *  -INTERVALS: a JSON array of [start, end) intervals of available dates, e.g. [["2018-10-01","2018-10-03"]]
+ *  -BITMASK:   binary, the first available-or-not day as a big-endian 8 byte epoch day, the number of days as a
+ *              big-endian 4 byte int, then one bit per day, least significant bit first, set when the day is available
+ */
+public enum AvailabilityFormat {
+
+    DATE_LIST("text/plain"),
+    INTERVALS("application/vnd.campsite.intervals+json"),
+    BITMASK("application/vnd.campsite.bitmask");
+
+    private final String contentType;
+
+    AvailabilityFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Picks the format to respond with from an Accept header. The media ranges are tried by order of quality, and for
+     * each one the formats it includes are tried in declaration order, so that a wildcard picks the list of dates.
+     * A format included in a media range of quality 0 is never picked. The first format that is not refused is the
+     * default, when the header is missing, invalid or matches none of the formats.
+     *
+     * @param accept    Accept header of the request
+     *
+     * @return          AvailabilityFormat to respond with
+     */
+    public static AvailabilityFormat fromAcceptHeader(final String accept) {
+        if (accept == null || accept.trim().isEmpty()) {
+            return DATE_LIST;
+        }
+
+        final List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e) {
+            return DATE_LIST;
+        }
+        MediaType.sortByQualityValue(mediaTypes);
+
+        final Set<AvailabilityFormat> acceptable = EnumSet.allOf(AvailabilityFormat.class);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0) {
+                acceptable.removeIf(format -> mediaType.includes(format.getMediaType()));
+            }
+        }
+
+        for (MediaType mediaType : mediaTypes) {
+            for (AvailabilityFormat format : acceptable) {
+                if (mediaType.includes(format.getMediaType())) {
+                    return format;
+                }
+            }
+        }
+        return acceptable.isEmpty() ? DATE_LIST : acceptable.iterator().next();
+    }
+
+    private MediaType getMediaType() {
+        return MediaType.parseMediaType(contentType);
+    }
+}
@@ -0,0 +1,118 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.pojo.BookingChange;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Last known-good availability of every day, used to answer availability requests while the database is unavailable.
+ * The snapshot is refreshed by every availability read from the database and patched with the Booking changes received
+ * from the BookingChangeTailer, so it stays accurate as long as the changes can be read.
+ */
+@Component
+public class AvailabilitySnapshot implements BookingChangeListener {
+
+    private static class Day {
+        private boolean free;
+        private long knownAtMillis;
+
+        private Day(final boolean free, final long knownAtMillis) {
+            this.free = free;
+            this.knownAtMillis = knownAtMillis;
+        }
+    }
+
+    // Epoch day -> last known availability of the night starting on that day. Guarded by this
+    private final TreeMap<Long, Day> days = new TreeMap<>();
+
+    /**
+     * Records an availability read from the database and forgets the days that are now in the past.
+     *
+     * @param availability      Availability read from the database
+     * @param readAtMillis      Time the read started, changes committed after it may be missing from the availability
+     */
+    public synchronized void update(final Availability availability, final long readAtMillis) {
+        final BitSet freeDays = availability.getFreeDays();
+
+        for (int i = 0; i < availability.getDays(); i++) {
+            days.put(availability.getStartEpochDay() + i, new Day(freeDays.get(i), readAtMillis));
+        }
+
+        days.headMap(LocalDate.now().toEpochDay()).clear();
+    }
+
+    /**
+     * Returns the last known availability over the date range given, both ends included.
+     *
+     * @param arrivalDate   Beginning of the date range
+     * @param departureDate End of the date range
+     *
+     * @return              Stale Availability, or null if the availability of some of the days is not known
+     */
+    public synchronized Availability get(final LocalDate arrivalDate, final LocalDate departureDate) {
+        final long startEpochDay = arrivalDate.toEpochDay();
+        final int length = (int) (departureDate.toEpochDay() - startEpochDay + 1);
+        final Map<Long, Day> range = days.subMap(startEpochDay, true, departureDate.toEpochDay(), true);
+
+        if (range.size() != length) {
+            return null;
+        }
+
+        final BitSet freeDays = new BitSet(length);
+        long staleSinceMillis = Long.MAX_VALUE;
+
+        for (Map.Entry<Long, Day> entry : range.entrySet()) {
+            freeDays.set((int) (entry.getKey() - startEpochDay), entry.getValue().free);
+            staleSinceMillis = Math.min(staleSinceMillis, entry.getValue().knownAtMillis);
+        }
+        return new Availability(startEpochDay, length, freeDays, staleSinceMillis);
+    }
+
+    @Override
+    public synchronized void onBookingChange(final BookingChange change) {
+        switch (change.getChangeType()) {
+            case CREATED:
+                setFree(change.getArrivalDate(), change.getDepartureDate(), false, change.getChangedAtMillis());
+                break;
+            case UPDATED:
+                setFree(change.getPreviousArrivalDate(), change.getPreviousDepartureDate(), true, change.getChangedAtMillis());
+                setFree(change.getArrivalDate(), change.getDepartureDate(), false, change.getChangedAtMillis());
+                break;
+            case CANCELLED:
+                setFree(change.getArrivalDate(), change.getDepartureDate(), true, change.getChangedAtMillis());
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public synchronized void onReset(final ResetReason reason) {
+        // Serving the snapshot while the database is unavailable is its purpose, the changes missed in the meantime are
+        // applied once the log can be read again
+        if (reason != ResetReason.STALE) {
+            days.clear();
+        }
+    }
+
+    /**
+     * Updates the nights of a Booking that are in the snapshot. The departure day is not a night of the Booking.
+     */
+    private void setFree(final LocalDate arrivalDate, final LocalDate departureDate, final boolean free, final long changedAtMillis) {
+        if (arrivalDate == null || departureDate == null) {
+            return;
+        }
+
+        for (Day day : days.subMap(arrivalDate.toEpochDay(), departureDate.toEpochDay()).values()) {
+            // A read from the database that started after the change already includes it
+            if (day.knownAtMillis <= changedAtMillis) {
+                day.free = free;
+                day.knownAtMillis = changedAtMillis;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.akash.campsite.service;
+
+import static com.akash.campsite.utility.CampsiteMessagesUtil.BACKUP_ERROR_FORMAT;
+
+/**
+ * Formats the bookings can be exported to and imported from. Both formats have one booking per line.
+ */
+public enum BackupFormat {
+
+    CSV("text/csv"),
+    NDJSON("application/x-ndjson");
+
+    private final String contentType;
+
+    BackupFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the BackupFormat matching the format name (case insensitive). CSV is used when no format is provided.
+     *
+     * @param format                    Name of the format
+     *
+     * @return                          BackupFormat matching the name
+     *
+     * @throws IllegalArgumentException Thrown when the format is not supported
+     */
+    public static BackupFormat fromString(final String format) throws IllegalArgumentException {
+        if (format == null || format.trim().isEmpty()) {
+            return CSV;
+        }
+
+        for (BackupFormat backupFormat : values()) {
+            if (backupFormat.name().equalsIgnoreCase(format.trim())) {
+                return backupFormat;
+            }
+        }
+        throw new IllegalArgumentException(BACKUP_ERROR_FORMAT + format);
+    }
+}
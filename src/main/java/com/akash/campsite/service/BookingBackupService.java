@@ -0,0 +1,386 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.pojo.BookingRecord;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.HibernateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
+
+/**
+ * Exports all the bookings to a stream and imports them back, e.g. to restore past bookings from a backup.
+ * Both directions work one booking at a time so memory use does not depend on the number of bookings.
+ *
+ * Each booking is written with the details of its user, so that a backup can be restored into an empty database.
+ * Backups with only the booking fields are still imported, their users must then already exist.
+ */
+@Service
+public class BookingBackupService {
+
+    private static final String CSV_HEADER = "bookingId,userId,arrivalDate,departureDate,firstName,lastName,email";
+
+    // Header of the backups written without the users' details
+    private static final String CSV_BOOKING_HEADER = "bookingId,userId,arrivalDate,departureDate";
+
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private CampsiteDAO campsiteDAO;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Integer.MIN_VALUE makes MySQL Connector/J stream the rows one by one instead of loading the whole result set
+    @Value("${campsite.backup.export-fetch-size:-2147483648}")
+    private int exportFetchSize;
+
+    @Value("${campsite.backup.import-batch-size:1000}")
+    private int importBatchSize;
+
+    /**
+     * Writes every booking to the output stream, one per line, in the requested format.
+     *
+     * @param outputStream          Stream to write the bookings to
+     * @param format                Format to write the bookings in
+     *
+     * @return                      Number of bookings exported
+     *
+     * @throws IOException          Thrown when writing to the stream fails
+     * @throws HibernateException   Thrown when an error occurs at the database level
+     */
+    public long exportBookings(final OutputStream outputStream, final BackupFormat format) throws IOException, HibernateException {
+        final long start = System.nanoTime();
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+
+        if (format == BackupFormat.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+
+        final long exported;
+        try {
+            exported = campsiteDAO.exportBookings(exportFetchSize, booking -> {
+                try {
+                    writeBooking(writer, booking, format);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+
+        recordThroughput(exported, start, "export");
+        return exported;
+    }
+
+    /**
+     * Reads bookings from the input stream, one per line, and inserts them in batches. Bookings keep their bookingId.
+     *
+     * @param inputStream               Stream to read the bookings from
+     * @param format                    Format the bookings are in
+     *
+     * @return                          Message with the number of bookings imported and the throughput
+     *
+     * @throws IOException              Thrown when reading from the stream fails
+     * @throws IllegalArgumentException Thrown when a line is not a valid booking
+     * @throws HibernateException       Thrown when an error occurs at the database level
+     */
+    public String importBookings(final InputStream inputStream, final BackupFormat format) throws IOException, IllegalArgumentException, HibernateException {
+        final long start = System.nanoTime();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        final BookingLineIterator bookings = new BookingLineIterator(reader, format, objectMapper.readerFor(BookingRecord.class));
+
+        final long imported;
+        try {
+            imported = campsiteDAO.importBookings(bookings, importBatchSize);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return BACKUP_IMPORT_SUCCESS + recordThroughput(imported, start, "import");
+    }
+
+    /**
+     * Writes a booking as a single line in the requested format.
+     */
+    private void writeBooking(final Writer writer, final BookingRecord booking, final BackupFormat format) throws IOException {
+        if (format == BackupFormat.CSV) {
+            writer.write(Integer.toString(booking.getBookingId()));
+            writer.write(',');
+            writer.write(Integer.toString(booking.getUserId()));
+            writer.write(',');
+            writer.write(booking.getArrivalDate().toString());
+            writer.write(',');
+            writer.write(booking.getDepartureDate().toString());
+            writer.write(',');
+            writeCsvField(writer, booking.getFirstName());
+            writer.write(',');
+            writeCsvField(writer, booking.getLastName());
+            writer.write(',');
+            writeCsvField(writer, booking.getEmail());
+        }
+        else {
+            // The line is written directly instead of going through Jackson, only the user's details need escaping
+            writer.write("{\"bookingId\":");
+            writer.write(Integer.toString(booking.getBookingId()));
+            writer.write(",\"userId\":");
+            writer.write(Integer.toString(booking.getUserId()));
+            writer.write(",\"arrivalDate\":\"");
+            writer.write(booking.getArrivalDate().toString());
+            writer.write("\",\"departureDate\":\"");
+            writer.write(booking.getDepartureDate().toString());
+            writer.write("\",\"firstName\":\"");
+            writer.write(JsonStringEncoder.getInstance().quoteAsString(booking.getFirstName()));
+            writer.write("\",\"lastName\":\"");
+            writer.write(JsonStringEncoder.getInstance().quoteAsString(booking.getLastName()));
+            writer.write("\",\"email\":\"");
+            writer.write(JsonStringEncoder.getInstance().quoteAsString(booking.getEmail()));
+            writer.write("\"}");
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Writes a CSV field, quoted when it contains a comma, a quote or a line break.
+     */
+    private static void writeCsvField(final Writer writer, final String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+        }
+        else {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Splits a CSV line into its fields, unquoting the quoted ones.
+     *
+     * @return  Fields of the line, null if a quote is not closed
+     */
+    private static String[] splitCsvLine(final String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                }
+                else if (c == '"') {
+                    quoted = false;
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return quoted ? null : fields.toArray(new String[0]);
+    }
+
+    /**
+     * Records the throughput metrics of an export or an import and describes them.
+     *
+     * @param rows          Number of bookings exported or imported
+     * @param startNanos    System.nanoTime() at the start of the operation
+     * @param operation     export or import
+     *
+     * @return              Description of the number of rows and the throughput
+     */
+    private String recordThroughput(final long rows, final long startNanos, final String operation) {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        final double rowsPerSecond = elapsedNanos > 0 ? rows * 1e9 / elapsedNanos : 0;
+
+        meterRegistry.counter("campsite.backup.rows", "operation", operation).increment(rows);
+        meterRegistry.timer("campsite.backup.duration", "operation", operation).record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+        return String.format(Locale.ROOT, "%d bookings in %d ms (%.0f bookings/s)", rows, elapsedMillis, rowsPerSecond);
+    }
+
+    /**
+     * Lazily parses one booking per line. Blank lines and the CSV header are skipped. A CSV record continues on the next
+     * lines while a quoted field is open, so that the line breaks written in quoted fields are read back as they were.
+     */
+    private static class BookingLineIterator implements Iterator<BookingRecord> {
+
+        private final BufferedReader reader;
+        private final BackupFormat format;
+        private final ObjectReader jsonReader;
+
+        private BookingRecord next;
+
+        // Lines read so far, and line on which the record being parsed starts
+        private long linesRead;
+        private long lineNumber;
+
+        BookingLineIterator(BufferedReader reader, BackupFormat format, ObjectReader jsonReader) {
+            this.reader = reader;
+            this.format = format;
+            this.jsonReader = jsonReader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public BookingRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BookingRecord booking = next;
+            next = null;
+            return booking;
+        }
+
+        private BookingRecord readNext() {
+            try {
+                String line;
+                while ((line = format == BackupFormat.CSV ? readCsvRecord() : readLine()) != null) {
+                    line = line.trim();
+
+                    if (line.isEmpty() || (format == BackupFormat.CSV && line.startsWith(CSV_BOOKING_HEADER))) {
+                        continue;
+                    }
+                    return parse(line);
+                }
+                return null;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String readLine() throws IOException {
+            lineNumber = linesRead + 1;
+            final String line = reader.readLine();
+
+            if (line != null) {
+                linesRead++;
+            }
+            return line;
+        }
+
+        /**
+         * Reads a CSV record, up to the first line break that is not in a quoted field.
+         *
+         * @return  Record without its final line break, null at the end of the stream
+         */
+        private String readCsvRecord() throws IOException {
+            lineNumber = linesRead + 1;
+            final StringBuilder record = new StringBuilder();
+            boolean quoted = false;
+            int c;
+
+            while ((c = reader.read()) != -1) {
+                // An escaped quote ("") toggles twice
+                if (c == '"') {
+                    quoted = !quoted;
+                }
+                else if (c == '\r' || c == '\n') {
+                    if (c == '\r') {
+                        reader.mark(1);
+                        if (reader.read() != '\n') {
+                            reader.reset();
+                        }
+                        else if (quoted) {
+                            record.append('\r');
+                            c = '\n';
+                        }
+                    }
+                    linesRead++;
+
+                    if (!quoted) {
+                        return record.toString();
+                    }
+                }
+                record.append((char) c);
+            }
+            return record.length() > 0 ? record.toString() : null;
+        }
+
+        private BookingRecord parse(final String line) {
+            final String[] fields = format == BackupFormat.CSV ? splitCsvLine(line) : null;
+
+            // Bookings are written with or without their user's details
+            if (format == BackupFormat.CSV && (fields == null || (fields.length != 4 && fields.length != 7))) {
+                throw new IllegalArgumentException(BACKUP_ERROR_INVALID_LINE + lineNumber);
+            }
+
+            final BookingRecord booking;
+            try {
+                if (fields != null) {
+                    final boolean withUser = fields.length == 7;
+                    booking = new BookingRecord(Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim()),
+                            LocalDate.parse(fields[2].trim()), LocalDate.parse(fields[3].trim()),
+                            withUser ? fields[4] : null, withUser ? fields[5] : null, withUser ? fields[6].trim() : null);
+                }
+                else {
+                    booking = jsonReader.readValue(line);
+                }
+            }
+            catch (RuntimeException | IOException e) {
+                throw new IllegalArgumentException(BACKUP_ERROR_INVALID_LINE + lineNumber + ": " + e.getMessage());
+            }
+
+            if (booking.getBookingId() <= 0 || booking.getArrivalDate() == null || booking.getDepartureDate() == null
+                    || (booking.getEmail() != null && (booking.getFirstName() == null || booking.getLastName() == null))) {
+                throw new IllegalArgumentException(BACKUP_ERROR_INVALID_LINE + lineNumber);
+            }
+            return booking;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.BookingChange;
+
+/**
+ * Implemented by the components that keep local state derived from the Bookings (e.g. caches). The BookingChangeTailer
+ * passes them every change committed by any instance of the application, in changeId order as far as possible.
+ * Listeners are called from the scheduler's threads: onReset may be called for staleness while a change is applied.
+ */
+public interface BookingChangeListener {
+
+    enum ResetReason {
+        // Bookings were imported in bulk, the log has a single RESET change for all of them
+        IMPORT,
+        // Too many changes happened at once to track them all, some are lost
+        MISSED_CHANGES,
+        // The log could not be read for too long; no change is lost, they are passed on once the log can be read
+        STALE
+    }
+
+    /**
+     * Called for every Booking change committed by any instance of the application.
+     *
+     * @param change    Change to apply
+     */
+    void onBookingChange(BookingChange change);
+
+    /**
+     * Called when the changes passed so far may not describe the Bookings anymore. Anything derived from the Bookings
+     * must be discarded or rebuilt from the database, unless the reason is STALE and the listener can wait for the
+     * changes to be caught up.
+     *
+     * @param reason    Why the listeners are reset
+     */
+    void onReset(ResetReason reason);
+}
@@ -0,0 +1,222 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.pojo.BookingChange;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.HibernateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tails the BOOKING_CHANGES log and passes every change to the BookingChangeListeners of this instance, so that
+ * their local state stays coherent with the writes made by every instance of the application.
+ *
+ * The log is polled with a cursor (the last changeId applied). Since changeIds are assigned when a change is inserted
+ * but become visible when its transaction commits, a change can show up after changes with a higher changeId. The ids
+ * skipped by the cursor are therefore remembered and polled again until they show up or the gap times out (the
+ * transaction was rolled back).
+ *
+ * Staleness is the time since the last poll that read the log up to its end. If it goes over the maximum staleness,
+ * the listeners are reset so that they do not keep serving state older than the bound. The staleness is checked by its
+ * own scheduled task, so the bound holds whether the polls fail or do not run at all.
+ */
+@Component
+public class BookingChangeTailer {
+
+    // Gaps kept beyond this number are dropped and the listeners are reset
+    private static final int MAX_PENDING_GAPS = 10000;
+
+    private static final long NOT_STARTED = -1;
+
+    @Autowired
+    private CampsiteDAO campsiteDAO;
+
+    @Autowired(required = false)
+    private List<BookingChangeListener> listeners = Collections.emptyList();
+
+    @Value("${campsite.changes.batch-size:500}")
+    private int batchSize;
+
+    @Value("${campsite.changes.gap-timeout-ms:10000}")
+    private long gapTimeoutMillis;
+
+    @Value("${campsite.changes.max-staleness-ms:30000}")
+    private long maxStalenessMillis;
+
+    @Value("${campsite.changes.retention-ms:604800000}")
+    private long retentionMillis;
+
+    // Last changeId read from the log
+    private long cursor = NOT_STARTED;
+
+    // changeIds skipped by the cursor -> time (millis) after which they are considered rolled back
+    private final Map<Long, Long> pendingGaps = new LinkedHashMap<>();
+
+    // Start time (millis) of the last poll that read the log up to its end
+    private volatile long caughtUpAtMillis = System.currentTimeMillis();
+
+    // Set once the listeners were reset for staleness, until the log is read up to its end again
+    private final AtomicBoolean staleReset = new AtomicBoolean(false);
+
+    private final Timer propagationDelay;
+
+    @Autowired
+    public BookingChangeTailer(final MeterRegistry meterRegistry) {
+        propagationDelay = Timer.builder("campsite.changes.propagation")
+                .description("Time between a change being logged and it being applied by this instance")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        meterRegistry.gauge("campsite.changes.staleness", this, BookingChangeTailer::getStalenessMillis);
+    }
+
+    /**
+     * Reads the changes logged since the last poll and passes them to the listeners.
+     */
+    @Scheduled(fixedDelayString = "${campsite.changes.poll-interval-ms:1000}")
+    public synchronized void poll() {
+        final long pollStartMillis = System.currentTimeMillis();
+
+        try {
+            if (cursor == NOT_STARTED) {
+                // The listeners start empty and load what they need from the database, only later changes are relevant
+                cursor = campsiteDAO.getLastBookingChangeId();
+            }
+            else {
+                applyPendingGaps(pollStartMillis);
+
+                List<BookingChange> changes;
+                do {
+                    changes = campsiteDAO.getBookingChangesAfter(cursor, batchSize);
+
+                    for (BookingChange change : changes) {
+                        rememberGaps(change.getChangeId(), pollStartMillis);
+                        apply(change);
+                        cursor = change.getChangeId();
+                    }
+                } while (changes.size() == batchSize);
+            }
+
+            caughtUpAtMillis = pollStartMillis;
+            staleReset.set(false);
+        }
+        catch (HibernateException e) {
+            // The staleness keeps growing until a poll succeeds, see checkStaleness
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Resets the listeners once the log has not been read up to its end for longer than the maximum staleness, e.g. because
+     * the database is unavailable or the polls are held up. Not synchronized with poll(), which may be the one held up.
+     */
+    @Scheduled(fixedDelayString = "${campsite.changes.staleness-check-interval-ms:1000}")
+    public void checkStaleness() {
+        if (getStalenessMillis() > maxStalenessMillis && staleReset.compareAndSet(false, true)) {
+            resetListeners(BookingChangeListener.ResetReason.STALE);
+        }
+    }
+
+    /**
+     * Deletes the changes older than the retention period. Every instance runs this, which is harmless.
+     */
+    @Scheduled(fixedDelayString = "${campsite.changes.purge-interval-ms:3600000}")
+    public void purge() {
+        try {
+            campsiteDAO.purgeBookingChanges(System.currentTimeMillis() - retentionMillis);
+        }
+        catch (HibernateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return  Time in milliseconds since this instance last read the log up to its end
+     */
+    public long getStalenessMillis() {
+        return System.currentTimeMillis() - caughtUpAtMillis;
+    }
+
+    /**
+     * Applies the changes that showed up in gaps left by the cursor and forgets the gaps that timed out.
+     *
+     * @param nowMillis Current time
+     */
+    private void applyPendingGaps(final long nowMillis) {
+        if (pendingGaps.isEmpty()) {
+            return;
+        }
+
+        for (BookingChange change : campsiteDAO.getBookingChangesById(new ArrayList<>(pendingGaps.keySet()))) {
+            pendingGaps.remove(change.getChangeId());
+            apply(change);
+        }
+
+        final Iterator<Long> deadlines = pendingGaps.values().iterator();
+        while (deadlines.hasNext()) {
+            if (deadlines.next() < nowMillis) {
+                deadlines.remove();
+            }
+        }
+    }
+
+    /**
+     * Remembers the changeIds between the cursor and the changeId read, which may still be committed later.
+     *
+     * @param changeId  changeId read from the log
+     * @param nowMillis Current time
+     */
+    private void rememberGaps(final long changeId, final long nowMillis) {
+        for (long missingId = cursor + 1; missingId < changeId; missingId++) {
+            if (pendingGaps.size() >= MAX_PENDING_GAPS) {
+                // Too many concurrent transactions to track, start over from a clean state
+                pendingGaps.clear();
+                resetListeners(BookingChangeListener.ResetReason.MISSED_CHANGES);
+                return;
+            }
+            pendingGaps.put(missingId, nowMillis + gapTimeoutMillis);
+        }
+    }
+
+    private void apply(final BookingChange change) {
+        propagationDelay.record(Math.max(0, System.currentTimeMillis() - change.getChangedAtMillis()), TimeUnit.MILLISECONDS);
+
+        for (BookingChangeListener listener : listeners) {
+            // One failing listener must not keep the others from seeing the change
+            try {
+                if (change.getChangeType() == BookingChange.ChangeType.RESET) {
+                    listener.onReset(BookingChangeListener.ResetReason.IMPORT);
+                }
+                else {
+                    listener.onBookingChange(change);
+                }
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void resetListeners(final BookingChangeListener.ResetReason reason) {
+        for (BookingChangeListener listener : listeners) {
+            // One failing listener must not keep the others from being reset
+            try {
+                listener.onReset(reason);
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.BookingChange;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of the booking events relayed from the BOOKING_OUTBOX table by the BookingOutboxRelay.
+ *
+ * Events are delivered at least once: a batch is published again when its deletion from the outbox fails after it
+ * was published. The changeId of an event is its OUTBOX_ID, which consumers can use to drop the duplicates.
+ */
+public interface BookingEventSink {
+
+    /**
+     * Publishes a batch of events. When this returns, the events must be durably accepted by the sink since they are
+     * then deleted from the outbox.
+     *
+     * @param events        Events, in the order they were written
+     *
+     * @throws IOException  When the batch could not be published, it is published again later
+     */
+    void publish(List<BookingChange> events) throws IOException;
+}
@@ -0,0 +1,124 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.pojo.BookingChange;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.HibernateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the booking events written to the BOOKING_OUTBOX table to the BookingEventSink, off the request path.
+ *
+ * The requests only pay for the insert of the event in their own transaction. The relay drains the outbox in batches,
+ * so that the sink sees one call (e.g. one file sync) per batch instead of one per event. Every instance runs it, the
+ * batches being claimed for a lease so that an event is not published by two instances at once.
+ */
+@Component
+public class BookingOutboxRelay {
+
+    @Autowired
+    private CampsiteDAO campsiteDAO;
+
+    @Autowired
+    private BookingEventSink sink;
+
+    @Value("${campsite.outbox.batch-size:200}")
+    private int batchSize;
+
+    // Bounds the time a run holds the scheduler thread, the remaining events are left to the next run
+    @Value("${campsite.outbox.max-batches-per-run:50}")
+    private int maxBatchesPerRun;
+
+    // Time a batch stays claimed by this instance, after which another instance may publish it again
+    @Value("${campsite.outbox.lease-ms:30000}")
+    private long leaseMillis;
+
+    // Age of the oldest event of the last batch published, 0 once the outbox was found empty
+    private volatile long backlogAgeMillis = 0;
+
+    private final Counter published;
+
+    private final Counter failures;
+
+    private final DistributionSummary batchSizes;
+
+    private final Timer lag;
+
+    @Autowired
+    public BookingOutboxRelay(final MeterRegistry meterRegistry) {
+        published = Counter.builder("campsite.outbox.published")
+                .description("Booking events published to the sink")
+                .register(meterRegistry);
+        failures = Counter.builder("campsite.outbox.failures")
+                .description("Relay runs stopped by a failure of the database or of the sink")
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("campsite.outbox.batch.size")
+                .description("Number of events published per batch")
+                .register(meterRegistry);
+        lag = Timer.builder("campsite.outbox.lag")
+                .description("Time between an event being written to the outbox and it being published")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        meterRegistry.gauge("campsite.outbox.backlog.age", this, BookingOutboxRelay::getBacklogAgeMillis);
+    }
+
+    /**
+     * Publishes the events of the outbox, batch by batch, until it is empty or the maximum number of batches is reached.
+     * A failure stops the run, the events not published are retried by the next one.
+     */
+    @Scheduled(fixedDelayString = "${campsite.outbox.poll-interval-ms:500}")
+    public void relay() {
+        try {
+            for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+                final int relayed = campsiteDAO.relayOutbox(batchSize, leaseMillis, this::publish);
+
+                if (relayed == 0) {
+                    backlogAgeMillis = 0;
+                }
+                if (relayed < batchSize) {
+                    return;
+                }
+            }
+        }
+        catch (HibernateException | UncheckedIOException e) {
+            failures.increment();
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return  Age in milliseconds of the oldest event of the last batch published
+     */
+    public long getBacklogAgeMillis() {
+        return backlogAgeMillis;
+    }
+
+    private void publish(final List<BookingChange> events) {
+        final long nowMillis = System.currentTimeMillis();
+        backlogAgeMillis = Math.max(0, nowMillis - events.get(0).getChangedAtMillis());
+
+        try {
+            sink.publish(events);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        for (BookingChange event : events) {
+            lag.record(Math.max(0, nowMillis - event.getChangedAtMillis()), TimeUnit.MILLISECONDS);
+        }
+        published.increment(events.size());
+        batchSizes.record(events.size());
+    }
+}
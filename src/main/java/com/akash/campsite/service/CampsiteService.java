@@ -1,18 +1,23 @@
 package com.akash.campsite.service;
 
 import com.akash.campsite.dao.CampsiteDAO;
-import com.akash.campsite.pojo.Booking;
+import com.akash.campsite.dao.CircuitOpenException;
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.pojo.DateRange;
+import com.akash.campsite.utility.RequestTimings;
+import io.micrometer.core.instrument.MeterRegistry;
 import javassist.NotFoundException;
 import org.hibernate.HibernateException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
 
@@ -22,9 +27,29 @@ import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
 @Service
 public class CampsiteService {
 
+    // The campsite cannot be booked for more than 3 days
+    public static final int MAX_BOOKING_NIGHTS = 3;
+
+    private static final int DEFAULT_STAY_WINDOWS = 10;
+
+    // There are at most about 31 bookable arrival dates
+    private static final int MAX_STAY_WINDOWS = 31;
+
     @Autowired
     private CampsiteDAO campsiteDAO;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private AvailabilitySnapshot availabilitySnapshot;
+
+    @Autowired
+    private UserIdentityCache userIdentityCache;
+
+    @Value("${campsite.nights.backfill-batch-size:1000}")
+    private int nightsBackfillBatchSize;
+
     /**
      * Attempts to create a new Booking after calling other methods to perform the required validation. A new User
      * is also created if the User that wishes to create the Booking does not exist yet.
@@ -42,6 +67,7 @@ public class CampsiteService {
      * @throws IllegalArgumentException     Thrown when validating the user fields or the dates fails
      */
     public int attemptToCreateBooking(final String firstName, final String lastName, final String email, final String arrivalDateString, final String departureDateString) throws DateTimeParseException, HibernateException, IllegalArgumentException {
+        final long validateStart = RequestTimings.start();
 
         if (!validateString(firstName) || !validateString(lastName) || !validateString(email)) {
             throw new IllegalArgumentException(USER_ERROR_NOT_PROVIDED);
@@ -55,13 +81,10 @@ public class CampsiteService {
         }
 
         validateBookingDateRange(arrivalDate, departureDate);
+        RequestTimings.stop(RequestTimings.VALIDATE, validateStart);
 
-        int userId = campsiteDAO.searchUserByEmail(email);
-
-        // Check if User exists
-        if (userId == -1) {
-            userId = campsiteDAO.createUser(firstName, lastName, email);
-        }
+        // Creates the User if it does not exist
+        final int userId = userIdentityCache.findOrCreateUserId(firstName, lastName, email);
 
         return campsiteDAO.createBooking(userId, arrivalDate, departureDate);
     }
@@ -84,12 +107,20 @@ public class CampsiteService {
         }
 
         // Make sure User does not exist
-        if (campsiteDAO.searchUserByEmail(email) == -1) {
-            campsiteDAO.createUser(firstName, lastName, email);
-        }
-        else {
+        if (userIdentityCache.findUserId(email) != -1) {
             throw new IllegalArgumentException(USER_ERROR_ALREADY_EXISTS + email);
         }
+
+        try {
+            userIdentityCache.createUser(firstName, lastName, email);
+        }
+        catch (HibernateException e) {
+            // Created concurrently by another request, or missed by the lookup
+            if (UserIdentityCache.isUniqueViolation(e)) {
+                throw new IllegalArgumentException(USER_ERROR_ALREADY_EXISTS + email, e);
+            }
+            throw e;
+        }
     }
 
     /**
@@ -118,6 +149,7 @@ public class CampsiteService {
      * @throws NotFoundException        Thrown when the Booking does not exist
      */
     public void attemptToUpdateBooking(final int bookingId, final String arrivalDateString, final String departureDateString) throws DateTimeParseException, HibernateException, NotFoundException, IllegalArgumentException {
+            final long validateStart = RequestTimings.start();
             LocalDate arrivalDate = parseDateString(arrivalDateString);
             LocalDate departureDate = parseDateString(departureDateString);
 
@@ -126,9 +158,23 @@ public class CampsiteService {
             }
 
             validateBookingDateRange(arrivalDate, departureDate);
+            RequestTimings.stop(RequestTimings.VALIDATE, validateStart);
+
             campsiteDAO.updateBooking(bookingId, arrivalDate, departureDate);
     }
 
+    /**
+     * Claims the CAMPSITE_NIGHTS of the Bookings that have none, i.e. the Bookings written before the table existed.
+     * Running it again only claims the nights still missing.
+     *
+     * @return                      Message with the number of nights claimed
+     *
+     * @throws HibernateException   Thrown when an error occurs at the database level
+     */
+    public String backfillNights() throws HibernateException {
+        return NIGHTS_BACKFILL_SUCCESS + campsiteDAO.backfillCampsiteNights(nightsBackfillBatchSize);
+    }
+
     /**
      * Returns a comma separated string with dates (YYYY-MM-DD) the campsite can be booked on, based on
      * the date range given.
@@ -143,6 +189,26 @@ public class CampsiteService {
      * @throws HibernateException       Thrown when an error occurs at the database level
      */
     public String getBookingAvailability(final String arrivalDateString, final String departureDateString) throws DateTimeParseException, HibernateException, IllegalArgumentException {
+        return new String(renderAvailability(getAvailability(arrivalDateString, departureDateString), AvailabilityFormat.DATE_LIST), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the availability of the campsite over the date range given, both ends included. If the arrival date is not
+     * provided, the range starts tomorrow. If the departure date is not provided, the range ends 1 month after the arrival date.
+     *
+     * While the database is unavailable, the last known availability is returned instead, marked as stale, if it is known
+     * for every day of the range.
+     *
+     * @param arrivalDateString         String representation of the beginning of the date range
+     * @param departureDateString       String representation of the end of the date range
+     *
+     * @return                          Availability of the campsite over the date range
+     *
+     * @throws DateTimeParseException   Thrown when the string representation of a date is in an invalid format and cannot be parsed
+     * @throws IllegalArgumentException Thrown when validating the dates fails
+     * @throws HibernateException       Thrown when an error occurs at the database level
+     */
+    public Availability getAvailability(final String arrivalDateString, final String departureDateString) throws DateTimeParseException, HibernateException, IllegalArgumentException {
         LocalDate arrivalDate = parseDateString(arrivalDateString);
         LocalDate departureDate = parseDateString(departureDateString);
 
@@ -165,55 +231,184 @@ public class CampsiteService {
         }
 
         if (needToValidateArrivalDate || needToValidateDepartureDate) {
+            final long validateStart = RequestTimings.start();
             validateDateRange(arrivalDate, departureDate);
+            RequestTimings.stop(RequestTimings.VALIDATE, validateStart);
         }
 
-        final List<Booking> bookings = campsiteDAO.getBookingsInDateRange(arrivalDate, departureDate);
+        try {
+            return computeAvailability(arrivalDate, departureDate, false);
+        }
+        catch (CircuitOpenException e) {
+            final Availability staleAvailability = availabilitySnapshot.get(arrivalDate, departureDate);
 
-        // Using a List instead of a Set for availableDates so that sorting it is easier
-        final List<String> availableDates = new ArrayList<>();
-        final Set<String> takenDates = new HashSet<>();
+            if (staleAvailability == null) {
+                throw e;
+            }
+            return staleAvailability;
+        }
+    }
 
-        for (Booking b: bookings) {
-            final LocalDate bookingArrival = b.getArrivalDate();
-            final  LocalDate bookingDeparture = b.getDepartureDate();
+    /**
+     * Returns the availability of the campsite over the date range given, both ends included, without validating the range.
+     *
+     * @param arrivalDate               Beginning of the date range
+     * @param departureDate             End of the date range
+     * @param fromPrimary               Boolean indicating whether to read from the primary database instead of a possibly lagging replica
+     *
+     * @return                          Availability of the campsite over the date range
+     *
+     * @throws HibernateException       Thrown when an error occurs at the database level
+     */
+    public Availability computeAvailability(final LocalDate arrivalDate, final LocalDate departureDate, final boolean fromPrimary) throws HibernateException {
+        final long readAtMillis = System.currentTimeMillis();
+        final List<DateRange> bookedRanges = campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, fromPrimary);
+
+        final long startEpochDay = arrivalDate.toEpochDay();
+        final int days = (int) (departureDate.toEpochDay() - startEpochDay + 1);
 
-            LocalDate date = LocalDate.of(bookingArrival.getYear(), bookingArrival.getMonth(), bookingArrival.getDayOfMonth());
+        // Every day of the range starts free, then the nights of each Booking are cleared. The departure day of a Booking is not taken.
+        final BitSet freeDays = new BitSet(days);
+        freeDays.set(0, days);
 
-            // Get Set of takenDates
-            while (date.isBefore(bookingDeparture)) {
-                if (date.isEqual(bookingArrival) || date.isAfter(bookingArrival)) {
-                    takenDates.add(date.toString());
-                }
-                date = date.plusDays(1);
+        for (DateRange range : bookedRanges) {
+            final long from = Math.max(range.getArrivalEpochDay() - startEpochDay, 0);
+            final long to = Math.min(range.getDepartureEpochDay() - startEpochDay, days);
+
+            if (from < to) {
+                freeDays.clear((int) from, (int) to);
             }
         }
 
-        // Get List of available dates
-        LocalDate iteratingDate = LocalDate.of(arrivalDate.getYear(), arrivalDate.getMonth(), arrivalDate.getDayOfMonth());
-        while (iteratingDate.isBefore(departureDate) || iteratingDate.equals(departureDate)) {
-            if (!takenDates.contains(iteratingDate.toString())) {
-                availableDates.add(iteratingDate.toString());
-            }
-            iteratingDate = iteratingDate.plusDays(1);
+        final Availability availability = new Availability(startEpochDay, days, freeDays);
+
+        availabilitySnapshot.update(availability, readAtMillis);
+        return availability;
+    }
+
+    /**
+     * Returns the earliest stays of the given number of nights that can currently be booked, i.e. the stays arriving at least
+     * 1 day in advance and leaving at most 1 month in the future whose nights are all free. Stays may overlap, each one is
+     * an alternative arrival date.
+     *
+     * @param nights                    Number of nights of the stays
+     * @param limit                     Maximum number of stays to return, 10 if not provided
+     *
+     * @return                          Sorted list of the DateRange of the stays
+     *
+     * @throws IllegalArgumentException Thrown when the number of nights or the limit is not valid
+     * @throws HibernateException       Thrown when an error occurs at the database level
+     */
+    public List<DateRange> getStayWindows(final Integer nights, final Integer limit) throws IllegalArgumentException, HibernateException {
+        if (nights == null || nights < 1 || nights > MAX_BOOKING_NIGHTS) {
+            throw new IllegalArgumentException(STAY_WINDOWS_ERROR_NIGHTS);
         }
 
-        // Sort the List of dates.
-        availableDates.sort(new Comparator<String>() {
-            DateFormat dateFormat = new SimpleDateFormat("YYYY-MM-DD");
-
-            @Override
-            public int compare(String date1, String date2) {
-                try {
-                    return dateFormat.parse(date1).compareTo(dateFormat.parse(date2));
-                } catch (ParseException e) {
-                   e.printStackTrace();
-                }
-                return 0;
+        if (limit != null && (limit < 1 || limit > MAX_STAY_WINDOWS)) {
+            throw new IllegalArgumentException(STAY_WINDOWS_ERROR_LIMIT);
+        }
+
+        // Every night that can be booked, from tomorrow to the night before the 1 month limit
+        final LocalDate today = LocalDate.now();
+        final Availability availability = computeAvailability(today.plusDays(1), today.plusMonths(1).plusDays(-1), false);
+
+        return findStayWindows(availability, nights, limit != null ? limit : DEFAULT_STAY_WINDOWS);
+    }
+
+    /**
+     * Slides a window of the given number of nights over the availability and returns the positions where every night of
+     * the window is free, earliest first.
+     *
+     * @param availability  Availability of the campsite
+     * @param nights        Number of nights of the stays
+     * @param limit         Maximum number of stays to return
+     *
+     * @return              Sorted list of the DateRange of the stays
+     */
+    public List<DateRange> findStayWindows(final Availability availability, final int nights, final int limit) {
+        final List<DateRange> windows = new ArrayList<>(limit);
+        final BitSet freeDays = availability.getFreeDays();
+        final long startEpochDay = availability.getStartEpochDay();
+
+        // Number of free nights in the window ending on day i
+        int freeNights = 0;
+
+        for (int i = 0; i < availability.getDays() && windows.size() < limit; i++) {
+            if (freeDays.get(i)) {
+                freeNights++;
+            }
+            if (i >= nights && freeDays.get(i - nights)) {
+                freeNights--;
             }
-        });
+            if (freeNights == nights) {
+                windows.add(new DateRange(startEpochDay + i - nights + 1, startEpochDay + i + 1));
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Serializes stays as a JSON array of [arrival, departure) pairs, e.g. [["2018-10-01","2018-10-04"]]
+     *
+     * @param windows   Stays to serialize
+     *
+     * @return          Serialized stays
+     */
+    public byte[] renderStayWindows(final List<DateRange> windows) {
+        return renderDateRanges(windows);
+    }
+
+    /**
+     * Serializes the availability in the requested format. The serialization time and the size of the result are
+     * recorded per format.
+     *
+     * @param availability  Availability to serialize
+     * @param format        Format to serialize the availability in
+     *
+     * @return              Serialized availability
+     */
+    public byte[] renderAvailability(final Availability availability, final AvailabilityFormat format) {
+        final long start = System.nanoTime();
+        final byte[] rendered;
+
+        switch (format) {
+            case INTERVALS:
+                rendered = renderIntervals(availability);
+                break;
+            case BITMASK:
+                rendered = renderBitmask(availability);
+                break;
+            default:
+                rendered = renderDateList(availability);
+        }
+
+        meterRegistry.timer("campsite.availability.serialization", "format", format.name()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        meterRegistry.summary("campsite.availability.response.bytes", "format", format.name()).record(rendered.length);
+        return rendered;
+    }
+
+    /**
+     * Parses the arrival and departure dates of a booking request and validates them with the same rules as a Booking:
+     * at least 1 day in advance, at most 1 month in advance, and at most 3 days.
+     *
+     * @param arrivalDateString         String representation of the arrival date
+     * @param departureDateString       String representation of the departure date
+     *
+     * @return                          DateRange of the requested nights
+     *
+     * @throws DateTimeParseException   Thrown when the string representation of a date is in an invalid format and cannot be parsed
+     * @throws IllegalArgumentException Thrown when validating the dates fails
+     */
+    public DateRange parseBookingDateRange(final String arrivalDateString, final String departureDateString) throws DateTimeParseException, IllegalArgumentException {
+        final LocalDate arrivalDate = parseDateString(arrivalDateString);
+        final LocalDate departureDate = parseDateString(departureDateString);
+
+        if (arrivalDate == null || departureDate == null) {
+            throw new IllegalArgumentException(DATE_ERROR_NOT_PROVIDED);
+        }
 
-        return availableDates.toString();
+        validateBookingDateRange(arrivalDate, departureDate);
+        return new DateRange(arrivalDate, departureDate);
     }
 
     /**
@@ -256,7 +451,7 @@ public class CampsiteService {
             numberOfDays++;
         }
 
-        if (numberOfDays > 3) {
+        if (numberOfDays > MAX_BOOKING_NIGHTS) {
             throw new IllegalArgumentException(DATE_ERROR_RANGE_3_DAYS);
         }
     }
@@ -320,4 +515,55 @@ public class CampsiteService {
     private boolean validateString(final String s) {
         return !(s == null || s.trim().isEmpty());
     }
+
+    /**
+     * Serializes the available dates as a list, e.g. [2018-10-01, 2018-10-02]
+     */
+    private byte[] renderDateList(final Availability availability) {
+        final StringBuilder builder = new StringBuilder(availability.getDays() * 12 + 2).append('[');
+        final BitSet freeDays = availability.getFreeDays();
+
+        for (int i = freeDays.nextSetBit(0); i >= 0 && i < availability.getDays(); i = freeDays.nextSetBit(i + 1)) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(LocalDate.ofEpochDay(availability.getStartEpochDay() + i));
+        }
+        return builder.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serializes the available dates as a JSON array of [start, end) intervals, e.g. [["2018-10-01","2018-10-03"]]
+     */
+    private byte[] renderIntervals(final Availability availability) {
+        return renderDateRanges(availability.getFreeIntervals());
+    }
+
+    private byte[] renderDateRanges(final List<DateRange> intervals) {
+        final StringBuilder builder = new StringBuilder().append('[');
+
+        for (DateRange interval : intervals) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append("[\"").append(interval.getArrivalDate()).append("\",\"").append(interval.getDepartureDate()).append("\"]");
+        }
+        return builder.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serializes the availability as the start epoch day (8 bytes), the number of days (4 bytes) and one bit per day,
+     * least significant bit first.
+     */
+    private byte[] renderBitmask(final Availability availability) {
+        final int days = availability.getDays();
+        final byte[] mask = availability.getFreeDays().get(0, days).toByteArray();
+
+        // BitSet.toByteArray() drops the trailing zero bytes, the buffer is allocated with the full length
+        return ByteBuffer.allocate(8 + 4 + (days + 7) / 8)
+                .putLong(availability.getStartEpochDay())
+                .putInt(days)
+                .put(mask)
+                .array();
+    }
 }
@@ -0,0 +1,44 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.BookingChange;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Appends the booking events to a file, one JSON object per line. The file is forced to disk once per batch, so the
+ * cost of the sync is shared by every event of the batch.
+ */
+@Component
+@ConditionalOnProperty(name = "campsite.outbox.sink", havingValue = "file")
+public class FileBookingEventSink implements BookingEventSink {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${campsite.outbox.file:booking-events.ndjson}")
+    private String file;
+
+    @Override
+    public synchronized void publish(final List<BookingChange> events) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(file, true)) {
+            final OutputStream out = new BufferedOutputStream(fileStream);
+            for (BookingChange event : events) {
+                out.write(objectMapper.writeValueAsBytes(event));
+                out.write(NEW_LINE);
+            }
+            out.flush();
+            fileStream.getChannel().force(false);
+        }
+    }
+}
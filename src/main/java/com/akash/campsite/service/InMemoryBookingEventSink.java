@@ -0,0 +1,44 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.BookingChange;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the latest booking events in memory, the oldest being dropped beyond the capacity. Used when no external sink
+ * is configured (development, tests).
+ */
+@Component
+@ConditionalOnProperty(name = "campsite.outbox.sink", havingValue = "memory", matchIfMissing = true)
+public class InMemoryBookingEventSink implements BookingEventSink {
+
+    private final ArrayDeque<BookingChange> events = new ArrayDeque<>();
+
+    private final int capacity;
+
+    public InMemoryBookingEventSink(@Value("${campsite.outbox.memory-capacity:10000}") final int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void publish(final List<BookingChange> batch) {
+        for (BookingChange event : batch) {
+            if (events.size() == capacity) {
+                events.removeFirst();
+            }
+            events.addLast(event);
+        }
+    }
+
+    /**
+     * @return  The events kept, oldest first
+     */
+    public synchronized List<BookingChange> getEvents() {
+        return new ArrayList<>(events);
+    }
+}
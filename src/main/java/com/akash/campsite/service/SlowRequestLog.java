@@ -0,0 +1,72 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.SlowRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded in-memory log of the most recent slow requests. Once the log is full, each new slow request replaces the oldest one.
+ */
+@Component
+public class SlowRequestLog {
+
+    private final long thresholdNanos;
+
+    // Ring buffer, next is the slot the next request is written to
+    private final SlowRequest[] requests;
+
+    private int next = 0;
+
+    private long recorded = 0;
+
+    public SlowRequestLog(@Value("${campsite.timing.slow-request-ms:500}") final long thresholdMillis,
+                          @Value("${campsite.timing.slow-request-log-size:100}") final int capacity) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.requests = new SlowRequest[capacity];
+    }
+
+    /**
+     * @param totalNanos    Duration of a request
+     *
+     * @return              Boolean indicating whether the request is slow enough to be logged
+     */
+    public boolean isSlow(final long totalNanos) {
+        return totalNanos >= thresholdNanos;
+    }
+
+    /**
+     * @param request   Slow request to log
+     */
+    public synchronized void record(final SlowRequest request) {
+        if (requests.length == 0) {
+            return;
+        }
+
+        requests[next] = request;
+        next = (next + 1) % requests.length;
+        recorded++;
+    }
+
+    /**
+     * @return  Logged slow requests, most recent first
+     */
+    public synchronized List<SlowRequest> getRecent() {
+        final int size = (int) Math.min(recorded, requests.length);
+        final List<SlowRequest> recent = new ArrayList<>(size);
+
+        for (int i = 1; i <= size; i++) {
+            recent.add(requests[(next - i + requests.length) % requests.length]);
+        }
+        return recent;
+    }
+
+    /**
+     * @return  Number of slow requests logged since the application started, including those no longer in the log
+     */
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+}
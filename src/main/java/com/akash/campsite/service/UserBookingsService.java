@@ -0,0 +1,136 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.pojo.Booking;
+import com.akash.campsite.pojo.UserBookingsPage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import javassist.NotFoundException;
+import org.hibernate.HibernateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
+
+/**
+ * Lists the Bookings of a User, page by page, with keyset pagination on (arrivalDate, bookingId). Each page continues
+ * after the last Booking of the previous page instead of skipping an offset, so every page costs an index seek on
+ * (USER_ID, ARRIVAL_DATE, BOOKING_ID) and a scan of the page, however many Bookings the User has.
+ *
+ * A page is read into memory, at most MAX_PAGE_SIZE + 1 Bookings, and written as JSON once the database session is closed:
+ *      {"bookings":[{"bookingId":1,"arrivalDate":"2018-10-01","departureDate":"2018-10-03"}],"next":"2018-10-01_1"}
+ * next is the cursor of the following page, or null on the last page.
+ */
+@Service
+public class UserBookingsService {
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    public static final int MAX_PAGE_SIZE = 100;
+
+    private static final String CURSOR_SEPARATOR = "_";
+
+    @Autowired
+    private CampsiteDAO campsiteDAO;
+
+    @Autowired
+    private UserIdentityCache userIdentityCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Reads a page of the User's Bookings. One more Booking than the limit is read, to know whether there is a next page.
+     *
+     * @param email                     User's email
+     * @param after                     Cursor returned as next by the previous page, null for the first page
+     * @param limit                     Maximum number of Bookings in the page, 20 if not provided
+     *
+     * @return                          Page of the User's Bookings
+     *
+     * @throws IllegalArgumentException Thrown when the email is not provided, or the cursor or the limit is not valid
+     * @throws NotFoundException        Thrown when the User does not exist
+     * @throws HibernateException       Thrown when an error occurs at the database level
+     */
+    public UserBookingsPage readPage(final String email, final String after, final Integer limit) throws IllegalArgumentException, NotFoundException, HibernateException {
+        if (email == null || email.trim().isEmpty()) {
+            throw new IllegalArgumentException(USER_ERROR_NOT_PROVIDED);
+        }
+
+        if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+            throw new IllegalArgumentException(USER_BOOKINGS_ERROR_LIMIT);
+        }
+
+        LocalDate afterArrivalDate = null;
+        int afterBookingId = 0;
+
+        if (after != null && !after.isEmpty()) {
+            final String[] cursor = after.split(CURSOR_SEPARATOR);
+            try {
+                if (cursor.length != 2) {
+                    throw new IllegalArgumentException(USER_BOOKINGS_ERROR_CURSOR + after);
+                }
+                afterArrivalDate = LocalDate.parse(cursor[0]);
+                afterBookingId = Integer.parseInt(cursor[1]);
+            }
+            catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException(USER_BOOKINGS_ERROR_CURSOR + after);
+            }
+        }
+
+        int userId = userIdentityCache.findUserId(email);
+
+        // The filter misses the Users created by other instances since it was built, nothing would correct a 404
+        if (userId == -1) {
+            userId = campsiteDAO.searchUserByEmail(UserIdentityCache.normalize(email));
+        }
+
+        if (userId == -1) {
+            throw new NotFoundException(USER_ERROR_NON_EXISTENT + email);
+        }
+
+        final int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        final List<Booking> bookings = campsiteDAO.getUserBookingsPage(userId, afterArrivalDate, afterBookingId, pageSize + 1);
+
+        if (bookings.size() <= pageSize) {
+            return new UserBookingsPage(bookings, null);
+        }
+
+        final Booking last = bookings.get(pageSize - 1);
+        return new UserBookingsPage(bookings.subList(0, pageSize), last.getArrivalDate() + CURSOR_SEPARATOR + last.getBookingId());
+    }
+
+    /**
+     * Writes the page as JSON to the output stream.
+     *
+     * @param page          Page to write
+     * @param outputStream  Stream to write the page to
+     *
+     * @throws IOException  Thrown when writing to the stream fails
+     */
+    public void writePage(final UserBookingsPage page, final OutputStream outputStream) throws IOException {
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("bookings");
+
+        for (final Booking booking : page.getBookings()) {
+            generator.writeStartObject();
+            generator.writeNumberField("bookingId", booking.getBookingId());
+            generator.writeStringField("arrivalDate", booking.getArrivalDate().toString());
+            generator.writeStringField("departureDate", booking.getDepartureDate().toString());
+            generator.writeEndObject();
+        }
+
+        generator.writeEndArray();
+        generator.writeStringField("next", page.getNext());
+        generator.writeEndObject();
+        generator.flush();
+    }
+}
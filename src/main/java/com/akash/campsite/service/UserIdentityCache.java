@@ -0,0 +1,372 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.dao.CampsiteDAO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.HibernateException;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Resolves the userId of an email without querying the database on every Booking.
+ *
+ * Known users are kept in a bounded email -> userId cache. The cache has two generations: entries are added to the current
+ * one, and once it is full it becomes the previous generation and the oldest generation is dropped. Entries found in the
+ * previous generation are moved back to the current one, so the most used emails stay cached.
+ *
+ * First-time bookers always miss the cache. A Bloom filter of every email in USERS tells which emails certainly do not exist,
+ * in which case the lookup query is skipped and the User is created right away. The filter is rebuilt from the database
+ * periodically. Users created by other instances in between are missing from it, so creating the User may hit the unique
+ * constraint on USERS.EMAIL; the User is then looked up again and used.
+ *
+ * Emails are normalized (trimmed, lower case) before being cached, looked up or stored.
+ */
+@Component
+public class UserIdentityCache {
+
+    private final CampsiteDAO campsiteDAO;
+
+    private final int maxEntries;
+    private final long expectedUsers;
+    private final int scanFetchSize;
+
+    // Generations of the cache, guarded by this for the swap. Reads and writes of the maps themselves are lock-free
+    private volatile Map<String, Integer> current = new ConcurrentHashMap<>();
+    private volatile Map<String, Integer> previous = new ConcurrentHashMap<>();
+
+    // Filter of every email in USERS, null until it has been built once. Filter being built, null when not rebuilding
+    private volatile BloomFilter filter;
+    private volatile BloomFilter building;
+
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter filterNegatives;
+    private final Counter filterFalsePositives;
+    private final Counter uniqueViolations;
+    private final DistributionSummary roundTripsSaved;
+
+    @Autowired
+    public UserIdentityCache(final CampsiteDAO campsiteDAO, final MeterRegistry meterRegistry,
+                             @Value("${campsite.users.cache-size:100000}") final int maxEntries,
+                             @Value("${campsite.users.filter-expected-users:1000000}") final long expectedUsers,
+                             @Value("${campsite.users.filter-scan-fetch-size:-2147483648}") final int scanFetchSize) {
+        this.campsiteDAO = campsiteDAO;
+        this.maxEntries = maxEntries;
+        this.expectedUsers = expectedUsers;
+        this.scanFetchSize = scanFetchSize;
+
+        cacheHits = meterRegistry.counter("campsite.users.cache", "result", "hit");
+        cacheMisses = meterRegistry.counter("campsite.users.cache", "result", "miss");
+        filterNegatives = meterRegistry.counter("campsite.users.filter", "result", "negative");
+        filterFalsePositives = meterRegistry.counter("campsite.users.filter", "result", "false-positive");
+        uniqueViolations = meterRegistry.counter("campsite.users.unique-violations");
+        roundTripsSaved = DistributionSummary.builder("campsite.users.round-trips-saved")
+                .description("Database round trips saved per Booking by the user identity cache and filter")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param email     Email as provided by the user
+     *
+     * @return          Email trimmed and in lower case
+     */
+    public static String normalize(final String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the userId of the User with the email, creating the User if it does not exist.
+     *
+     * @param firstName             User's first name, used if the User is created
+     * @param lastName              User's last name, used if the User is created
+     * @param email                 User's email
+     *
+     * @return                      userId of the User
+     *
+     * @throws HibernateException   Thrown when an error occurs at the database level
+     */
+    public int findOrCreateUserId(final String firstName, final String lastName, final String email) throws HibernateException {
+        final String normalizedEmail = normalize(email);
+        final Integer cachedUserId = getCached(normalizedEmail);
+
+        if (cachedUserId != null) {
+            // Neither the lookup nor the creation of the User is needed
+            roundTripsSaved.record(1);
+            return cachedUserId;
+        }
+
+        final BloomFilter bloomFilter = filter;
+        final boolean lookupSkipped = !mightExist(bloomFilter, normalizedEmail);
+        if (!lookupSkipped) {
+            final int userId = campsiteDAO.searchUserByEmail(normalizedEmail);
+
+            if (userId != -1) {
+                put(normalizedEmail, userId);
+                roundTripsSaved.record(0);
+                return userId;
+            }
+            countFalsePositive(bloomFilter);
+        }
+
+        try {
+            final int userId = createUser(firstName, lastName, normalizedEmail);
+            roundTripsSaved.record(lookupSkipped ? 1 : 0);
+            return userId;
+        }
+        catch (HibernateException e) {
+            if (!isUniqueViolation(e)) {
+                throw e;
+            }
+
+            // Created concurrently by another request, possibly on another instance of the application. The lookup that
+            // was skipped is needed after all, nothing was saved
+            uniqueViolations.increment();
+            final int userId = campsiteDAO.searchUserByEmail(normalizedEmail);
+
+            if (userId == -1) {
+                throw e;
+            }
+            put(normalizedEmail, userId);
+            roundTripsSaved.record(0);
+            return userId;
+        }
+    }
+
+    /**
+     * Returns the userId of the User with the email. The answer may be -1 for a User created by another instance since
+     * the filter was built, so callers must be able to recover from it (e.g. through the unique constraint on USERS.EMAIL).
+     *
+     * @param email                 User's email
+     *
+     * @return                      userId if the User may exist and does. Else, -1
+     *
+     * @throws HibernateException   Thrown when an error occurs at the database level
+     */
+    public int findUserId(final String email) throws HibernateException {
+        final String normalizedEmail = normalize(email);
+        final Integer cachedUserId = getCached(normalizedEmail);
+
+        if (cachedUserId != null) {
+            return cachedUserId;
+        }
+
+        final BloomFilter bloomFilter = filter;
+        if (!mightExist(bloomFilter, normalizedEmail)) {
+            return -1;
+        }
+
+        final int userId = campsiteDAO.searchUserByEmail(normalizedEmail);
+
+        if (userId != -1) {
+            put(normalizedEmail, userId);
+        }
+        else {
+            countFalsePositive(bloomFilter);
+        }
+        return userId;
+    }
+
+    /**
+     * Creates a User and caches its userId.
+     *
+     * @param firstName             User's first name
+     * @param lastName              User's last name
+     * @param email                 User's email
+     *
+     * @return                      userId of the newly created User
+     *
+     * @throws HibernateException   Thrown when an error occurs at the database level, including when the email already exists
+     */
+    public int createUser(final String firstName, final String lastName, final String email) throws HibernateException {
+        final String normalizedEmail = normalize(email);
+
+        // Added to the filter before the User is visible, so that the filter never misses a User created by this instance
+        addToFilter(normalizedEmail);
+
+        final int userId = campsiteDAO.createUser(firstName, lastName, normalizedEmail);
+        put(normalizedEmail, userId);
+        return userId;
+    }
+
+    /**
+     * Rebuilds the Bloom filter from every email in USERS, to include the Users created by other instances. Users created
+     * while the filter is rebuilt are added to both filters.
+     */
+    @Scheduled(fixedDelayString = "${campsite.users.filter-rebuild-interval-ms:3600000}")
+    public void rebuildFilter() {
+        final BloomFilter rebuilt = new BloomFilter(expectedUsers);
+        building = rebuilt;
+        try {
+            campsiteDAO.exportUserEmails(scanFetchSize, email -> rebuilt.add(normalize(email)));
+            filter = rebuilt;
+        }
+        catch (HibernateException e) {
+            // Keep the previous filter, or keep querying the database if there is none
+            e.printStackTrace();
+        } finally {
+            building = null;
+        }
+    }
+
+    private Integer getCached(final String normalizedEmail) {
+        Integer userId = current.get(normalizedEmail);
+
+        if (userId == null) {
+            userId = previous.get(normalizedEmail);
+
+            if (userId != null) {
+                put(normalizedEmail, userId);
+            }
+        }
+
+        if (userId != null) {
+            cacheHits.increment();
+        }
+        else {
+            cacheMisses.increment();
+        }
+        return userId;
+    }
+
+    private void put(final String normalizedEmail, final int userId) {
+        current.put(normalizedEmail, userId);
+
+        if (current.size() > maxEntries / 2) {
+            synchronized (this) {
+                if (current.size() > maxEntries / 2) {
+                    previous = current;
+                    current = new ConcurrentHashMap<>();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param bloomFilter       Filter read once by the caller, null if it has not been built yet
+     * @param normalizedEmail   Normalized email
+     *
+     * @return                  Boolean indicating whether the User might exist, always true without a filter
+     */
+    private boolean mightExist(final BloomFilter bloomFilter, final String normalizedEmail) {
+        if (bloomFilter == null || bloomFilter.mightContain(normalizedEmail)) {
+            return true;
+        }
+        filterNegatives.increment();
+        return false;
+    }
+
+    /**
+     * Counts a lookup that found no User although the filter said it might exist. Without a filter, no answer was wrong.
+     */
+    private void countFalsePositive(final BloomFilter bloomFilter) {
+        if (bloomFilter != null) {
+            filterFalsePositives.increment();
+        }
+    }
+
+    private void addToFilter(final String normalizedEmail) {
+        final BloomFilter bloomFilter = filter;
+        final BloomFilter rebuilding = building;
+
+        if (bloomFilter != null) {
+            bloomFilter.add(normalizedEmail);
+        }
+        if (rebuilding != null) {
+            rebuilding.add(normalizedEmail);
+        }
+    }
+
+    /**
+     * @param e     Exception thrown when creating a User
+     *
+     * @return      Boolean indicating whether a User with the same email already exists
+     */
+    static boolean isUniqueViolation(final Throwable e) {
+        for (Throwable cause = e; cause != null && cause.getCause() != cause; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bloom filter of strings with a 1% false positive rate at the expected number of elements. Thread-safe: bits are
+     * only ever set, with atomic operations.
+     */
+    static class BloomFilter {
+
+        private final AtomicLongArray words;
+        private final long bits;
+        private final int hashes;
+
+        BloomFilter(final long expectedElements) {
+            final long n = Math.max(expectedElements, 1);
+
+            // m = -n ln(p) / ln(2)^2 and k = m/n ln(2) with p = 0.01
+            bits = Math.max(64, (long) Math.ceil(-n * Math.log(0.01) / (Math.log(2) * Math.log(2))));
+            hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+            words = new AtomicLongArray((int) ((bits + 63) / 64));
+        }
+
+        void add(final String s) {
+            final long hash = hash(s);
+            final int h1 = (int) hash;
+            final int h2 = (int) (hash >>> 32);
+
+            for (int i = 0; i < hashes; i++) {
+                final long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+
+                long value;
+                while (((value = words.get(word)) & mask) == 0 && !words.compareAndSet(word, value, value | mask)) {
+                    // Retry, another bit of the same word was set concurrently
+                }
+            }
+        }
+
+        boolean mightContain(final String s) {
+            final long hash = hash(s);
+            final int h1 = (int) hash;
+            final int h2 = (int) (hash >>> 32);
+
+            for (int i = 0; i < hashes; i++) {
+                final long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 64-bit FNV-1a over the characters, followed by the MurmurHash3 finalizer to spread the bits.
+         */
+        private static long hash(final String s) {
+            long hash = 0xcbf29ce484222325L;
+
+            for (int i = 0; i < s.length(); i++) {
+                hash ^= s.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb3fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
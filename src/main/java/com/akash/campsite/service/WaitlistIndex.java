@@ -0,0 +1,135 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.WaitlistEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of the waiting WaitlistEntry objects, bucketed by arrival day and number of nights. Each bucket keeps its entries
+ * ordered by registration order, so its head is the entry that has been waiting the longest.
+ *
+ * Since a stay is at most maxNights long, the entries that fit in a run of free nights are found by peeking at the
+ * heads of at most (run length * maxNights) buckets, each in logarithmic time, regardless of the size of the waitlist.
+ *
+ * This class is not thread-safe.
+ */
+public class WaitlistIndex {
+
+    private final int maxNights;
+
+    // Bucket key (see bucketKey) -> entries waiting for exactly those nights, by registration order
+    private final Map<Long, TreeMap<Long, WaitlistEntry>> buckets = new HashMap<>();
+
+    private int size;
+
+    public WaitlistIndex(final int maxNights) {
+        this.maxNights = maxNights;
+    }
+
+    /**
+     * @param entry                     Entry to add
+     *
+     * @throws IllegalArgumentException Thrown when the entry is for more than maxNights nights
+     */
+    public void add(final WaitlistEntry entry) throws IllegalArgumentException {
+        final long key = bucketKey(entry);
+
+        if (buckets.computeIfAbsent(key, k -> new TreeMap<>()).put(entry.getRegistrationOrder(), entry) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * @param entry     Entry to remove
+     *
+     * @return          Boolean indicating whether the entry was in the index
+     */
+    public boolean remove(final WaitlistEntry entry) {
+        final long key = bucketKey(entry);
+        final TreeMap<Long, WaitlistEntry> bucket = buckets.get(key);
+
+        if (bucket == null || bucket.remove(entry.getRegistrationOrder()) == null) {
+            return false;
+        }
+
+        if (bucket.isEmpty()) {
+            buckets.remove(key);
+        }
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the entry that has been waiting the longest among the entries whose nights all fall within the
+     * free nights [freeStartEpochDay, freeEndEpochDay). The entry is not removed.
+     *
+     * @param freeStartEpochDay     First free night
+     * @param freeEndEpochDay       Day after the last free night
+     *
+     * @return                      Best matching entry, or null if no entry fits
+     */
+    public WaitlistEntry findBestMatch(final long freeStartEpochDay, final long freeEndEpochDay) {
+        WaitlistEntry best = null;
+
+        for (long arrival = freeStartEpochDay; arrival < freeEndEpochDay; arrival++) {
+            for (int nights = 1; nights <= maxNights && arrival + nights <= freeEndEpochDay; nights++) {
+                final TreeMap<Long, WaitlistEntry> bucket = buckets.get(bucketKey(arrival, nights));
+
+                if (bucket != null) {
+                    final WaitlistEntry head = bucket.firstEntry().getValue();
+
+                    if (best == null || head.getRegistrationOrder() < best.getRegistrationOrder()) {
+                        best = head;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Removes and returns the entries arriving before the given day.
+     *
+     * @param epochDay  Entries arriving before this day are removed
+     *
+     * @return          List of the removed entries
+     */
+    public List<WaitlistEntry> removeArrivingBefore(final long epochDay) {
+        final List<WaitlistEntry> removed = new ArrayList<>();
+        final Iterator<TreeMap<Long, WaitlistEntry>> iterator = buckets.values().iterator();
+
+        while (iterator.hasNext()) {
+            final TreeMap<Long, WaitlistEntry> bucket = iterator.next();
+
+            if (bucket.firstEntry().getValue().getDateRange().getArrivalEpochDay() < epochDay) {
+                removed.addAll(bucket.values());
+                size -= bucket.size();
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    private long bucketKey(final WaitlistEntry entry) {
+        final long arrival = entry.getDateRange().getArrivalEpochDay();
+        final long nights = entry.getDateRange().getDepartureEpochDay() - arrival;
+
+        if (nights < 1 || nights > maxNights) {
+            throw new IllegalArgumentException("Waitlist entries must be for 1 to " + maxNights + " nights");
+        }
+        return bucketKey(arrival, (int) nights);
+    }
+
+    private long bucketKey(final long arrivalEpochDay, final int nights) {
+        return arrivalEpochDay * (maxNights + 1) + nights;
+    }
+}
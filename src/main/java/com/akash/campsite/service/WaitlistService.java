@@ -0,0 +1,351 @@
+package com.akash.campsite.service;
+
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.pojo.BookingChange;
+import com.akash.campsite.pojo.DateRange;
+import com.akash.campsite.pojo.WaitlistEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import javassist.NotFoundException;
+import org.hibernate.HibernateException;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.akash.campsite.service.CampsiteService.MAX_BOOKING_NIGHTS;
+import static com.akash.campsite.utility.CampsiteMessagesUtil.*;
+
+/**
+ * Lets users wait for a date range to become free instead of polling the availability. When a Booking is cancelled
+ * or moved, by any instance of the application, the freed nights are matched against the waitlist and the entry that
+ * has been waiting the longest among those that fit is either offered the nights or booked automatically.
+ *
+ * Changes are received from the BookingChangeTailer. Entries are kept in memory by the instance they were registered
+ * with, so they do not survive a restart of that instance. Their waitlistIds are random UUIDs, so an id given out by one
+ * instance never designates another instance's entry, and an entry is only shown to or cancelled by its user's email.
+ *
+ * The availability used for matching is read from the primary database: the replica may not have seen the cancellation
+ * yet. When matching fails on a database error, the entries keep waiting and every bookable night is matched again later.
+ */
+@Service
+public class WaitlistService implements BookingChangeListener {
+
+    @Autowired
+    private CampsiteService campsiteService;
+
+    @Value("${campsite.waitlist.max-entries:10000}")
+    private int maxEntries;
+
+    // Guarded by itself
+    private final WaitlistIndex index = new WaitlistIndex(MAX_BOOKING_NIGHTS);
+
+    // Every entry that was registered and not yet pruned, whatever its status
+    private final Map<String, WaitlistEntry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextRegistrationOrder = new AtomicLong(1);
+
+    // Set when matching failed on a database error, cleared when every bookable night is matched again
+    private final AtomicBoolean retryPending = new AtomicBoolean(false);
+
+    private final Counter offeredCounter;
+    private final Counter bookedCounter;
+
+    @Autowired
+    public WaitlistService(final MeterRegistry meterRegistry) {
+        offeredCounter = meterRegistry.counter("campsite.waitlist.matches", "outcome", "offered");
+        bookedCounter = meterRegistry.counter("campsite.waitlist.matches", "outcome", "booked");
+        meterRegistry.gauge("campsite.waitlist.waiting", index, WaitlistService::countWaiting);
+    }
+
+    /**
+     * Registers a user on the waitlist for a date range. The dates follow the same rules as a Booking. If the nights are
+     * already free, the entry is matched right away; if that fails on a database error, the entry is registered and
+     * matched again later.
+     *
+     * @param firstName                 User's first name
+     * @param lastName                  User's last name
+     * @param email                     User's email
+     * @param arrivalDateString         String representation of the desired arrival date
+     * @param departureDateString       String representation of the desired departure date
+     * @param autoBook                  Boolean indicating whether the nights should be booked automatically when they are free
+     *
+     * @return                          waitlistId of the new entry
+     *
+     * @throws DateTimeParseException   Thrown when the string representation of a date is in an invalid format and cannot be parsed
+     * @throws IllegalArgumentException Thrown when validating the user fields or the dates fails, or when the waitlist is full
+     * @throws HibernateException       Thrown when an error occurs at the database level while validating the dates
+     */
+    public String register(final String firstName, final String lastName, final String email, final String arrivalDateString,
+                         final String departureDateString, final boolean autoBook) throws DateTimeParseException, IllegalArgumentException, HibernateException {
+
+        if (!validateString(firstName) || !validateString(lastName) || !validateString(email)) {
+            throw new IllegalArgumentException(USER_ERROR_NOT_PROVIDED);
+        }
+
+        final DateRange dateRange = campsiteService.parseBookingDateRange(arrivalDateString, departureDateString);
+
+        if (entries.size() >= maxEntries) {
+            throw new IllegalArgumentException(WAITLIST_ERROR_FULL);
+        }
+
+        final WaitlistEntry entry = new WaitlistEntry(UUID.randomUUID().toString(), nextRegistrationOrder.getAndIncrement(),
+                firstName, lastName, email, dateRange, autoBook);
+        entries.put(entry.getWaitlistId(), entry);
+
+        synchronized (index) {
+            index.add(entry);
+        }
+
+        try {
+            matchFreedNights(dateRange);
+        }
+        catch (HibernateException e) {
+            // The entry keeps waiting, matchFreedNights already scheduled the retry
+            e.printStackTrace();
+        }
+        return entry.getWaitlistId();
+    }
+
+    /**
+     * @param waitlistId            waitlistId of the entry
+     * @param email                 Email of the user who registered the entry
+     *
+     * @return                      WaitlistEntry with the waitlistId
+     *
+     * @throws NotFoundException    Thrown when the entry does not exist or was registered with another email
+     */
+    public WaitlistEntry getEntry(final String waitlistId, final String email) throws NotFoundException {
+        final WaitlistEntry entry = waitlistId == null ? null : entries.get(waitlistId);
+
+        // Someone else's entry is reported as missing, so that its existence is not disclosed
+        if (entry == null || !entry.getEmail().equalsIgnoreCase(email)) {
+            throw new NotFoundException(WAITLIST_ERROR_NON_EXISTENT + waitlistId);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes an entry from the waitlist.
+     *
+     * @param waitlistId            waitlistId of the entry
+     * @param email                 Email of the user who registered the entry
+     *
+     * @throws NotFoundException    Thrown when the entry does not exist or was registered with another email
+     */
+    public void cancel(final String waitlistId, final String email) throws NotFoundException {
+        final WaitlistEntry entry = getEntry(waitlistId, email);
+
+        if (!entries.remove(waitlistId, entry)) {
+            throw new NotFoundException(WAITLIST_ERROR_NON_EXISTENT + waitlistId);
+        }
+
+        synchronized (index) {
+            index.remove(entry);
+        }
+    }
+
+    @Override
+    public void onBookingChange(final BookingChange change) {
+        if (change.getChangeType() == BookingChange.ChangeType.CANCELLED) {
+            matchFreedNights(new DateRange(change.getArrivalDate(), change.getDepartureDate()));
+        }
+        else if (change.getChangeType() == BookingChange.ChangeType.UPDATED) {
+            matchFreedNights(new DateRange(change.getPreviousArrivalDate(), change.getPreviousDepartureDate()));
+        }
+    }
+
+    @Override
+    public void onReset(final ResetReason reason) {
+        matchBookableNights();
+    }
+
+    /**
+     * Matches every bookable night again if matching failed on a database error since the last run.
+     */
+    @Scheduled(fixedDelayString = "${campsite.waitlist.retry-interval-ms:60000}")
+    public void retryFailedMatching() {
+        if (retryPending.getAndSet(false)) {
+            try {
+                matchBookableNights();
+            }
+            catch (HibernateException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Expires the entries that can no longer be booked and forgets the finished entries whose dates have passed.
+     */
+    @Scheduled(fixedDelayString = "${campsite.waitlist.expiry-interval-ms:3600000}")
+    public void expireEntries() {
+        final long tomorrow = LocalDate.now().plusDays(1).toEpochDay();
+
+        synchronized (index) {
+            for (WaitlistEntry entry : index.removeArrivingBefore(tomorrow)) {
+                entry.setStatus(WaitlistEntry.Status.EXPIRED);
+            }
+        }
+
+        entries.values().removeIf(entry -> entry.getStatus() != WaitlistEntry.Status.WAITING
+                && entry.getDateRange().getDepartureEpochDay() < tomorrow);
+    }
+
+    /**
+     * Matches the waitlist against the runs of free nights that include some of the freed nights. A run can extend past
+     * the freed nights by up to the longest stay on each side, so the availability is read over that wider range.
+     *
+     * @param freed                 Nights that may have become free
+     *
+     * @throws HibernateException   Thrown when an error occurs at the database level, the matching is then retried later
+     */
+    private void matchFreedNights(final DateRange freed) throws HibernateException {
+        try {
+            matchRuns(freed);
+        }
+        catch (HibernateException e) {
+            retryPending.set(true);
+            throw e;
+        }
+    }
+
+    private void matchBookableNights() throws HibernateException {
+        // Nights may have been freed without this instance noticing, look at every bookable night
+        final LocalDate today = LocalDate.now();
+        matchFreedNights(new DateRange(today.plusDays(1), today.plusMonths(1)));
+    }
+
+    private void matchRuns(final DateRange freed) {
+        synchronized (index) {
+            if (index.size() == 0) {
+                return;
+            }
+        }
+
+        final LocalDate today = LocalDate.now();
+        final long from = Math.max(freed.getArrivalEpochDay() - MAX_BOOKING_NIGHTS, today.plusDays(1).toEpochDay());
+        final long to = Math.min(freed.getDepartureEpochDay() + MAX_BOOKING_NIGHTS, today.plusMonths(1).toEpochDay());
+
+        if (from >= to) {
+            return;
+        }
+
+        final Availability availability = campsiteService.computeAvailability(LocalDate.ofEpochDay(from), LocalDate.ofEpochDay(to - 1), true);
+        final Deque<DateRange> runs = new ArrayDeque<>();
+
+        for (DateRange run : availability.getFreeIntervals()) {
+            if (run.getArrivalEpochDay() < freed.getDepartureEpochDay() && freed.getArrivalEpochDay() < run.getDepartureEpochDay()) {
+                runs.add(run);
+            }
+        }
+
+        while (!runs.isEmpty()) {
+            final DateRange run = runs.poll();
+            final WaitlistEntry match;
+
+            synchronized (index) {
+                match = index.findBestMatch(run.getArrivalEpochDay(), run.getDepartureEpochDay());
+
+                if (match == null) {
+                    continue;
+                }
+                index.remove(match);
+            }
+
+            if (!offerOrBook(match)) {
+                continue;
+            }
+
+            // The matched nights are taken, the rest of the run can still be matched
+            final DateRange taken = match.getDateRange();
+
+            if (run.getArrivalEpochDay() < taken.getArrivalEpochDay()) {
+                runs.add(new DateRange(run.getArrivalEpochDay(), taken.getArrivalEpochDay()));
+            }
+            if (taken.getDepartureEpochDay() < run.getDepartureEpochDay()) {
+                runs.add(new DateRange(taken.getDepartureEpochDay(), run.getDepartureEpochDay()));
+            }
+        }
+    }
+
+    /**
+     * Offers the nights to the entry or books them, depending on the entry.
+     *
+     * @param entry                 Entry matched with free nights, already removed from the index
+     *
+     * @return                      Boolean indicating whether the nights are now taken (offered or booked)
+     *
+     * @throws HibernateException   Thrown when the booking fails for another reason than the nights being taken, the
+     *                              entry is then back in the index
+     */
+    private boolean offerOrBook(final WaitlistEntry entry) throws HibernateException {
+        if (!entry.isAutoBook()) {
+            entry.setStatus(WaitlistEntry.Status.OFFERED);
+            offeredCounter.increment();
+            return true;
+        }
+
+        try {
+            final int bookingId = campsiteService.attemptToCreateBooking(entry.getFirstName(), entry.getLastName(), entry.getEmail(),
+                    entry.getArrivalDate().toString(), entry.getDepartureDate().toString());
+            entry.setBookingId(bookingId);
+            entry.setStatus(WaitlistEntry.Status.BOOKED);
+            bookedCounter.increment();
+            return true;
+        }
+        catch (IllegalArgumentException | DateTimeParseException e) {
+            // The dates are no longer valid (e.g. the arrival date is now less than 1 day in advance)
+            entry.setStatus(WaitlistEntry.Status.EXPIRED);
+            return false;
+        }
+        catch (HibernateException e) {
+            // Keep waiting: for the next time the nights are freed if someone else booked them first, or for the retry
+            if (entries.containsKey(entry.getWaitlistId())) {
+                synchronized (index) {
+                    index.add(entry);
+                }
+            }
+
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param e     Exception thrown when creating a Booking
+     *
+     * @return      Boolean indicating whether a constraint of the database rejected the Booking, i.e. its nights are taken
+     */
+    private static boolean isConstraintViolation(final HibernateException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean validateString(final String s) {
+        return !(s == null || s.trim().isEmpty());
+    }
+
+    private static double countWaiting(final WaitlistIndex index) {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+}
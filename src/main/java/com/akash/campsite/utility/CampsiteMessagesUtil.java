@@ -10,6 +10,18 @@ public class CampsiteMessagesUtil {
 
     public static final String AVAILABILITY_ERROR_HIBERNATE = "An error occurred while trying to retrieve the available dates, please try again.";
 
+    public static final String BACKUP_ERROR_EXPORT_HIBERNATE = "An error occurred while exporting the bookings. Bookings exported before the error: ";
+
+    public static final String BACKUP_ERROR_FORMAT = "Unsupported backup format, please use csv or ndjson: ";
+
+    public static final String BACKUP_ERROR_IMPORT_HIBERNATE = "An error occurred while importing the bookings. Bookings imported before the error: ";
+
+    public static final String BACKUP_ERROR_INVALID_LINE = "Invalid booking on line ";
+
+    public static final String BACKUP_IMPORT_SUCCESS = "Bookings imported: ";
+
+    public static final String BOOKING_CHANGES_ERROR_HIBERNATE = "An error occurred while accessing the booking change log.";
+
     public static final String BOOKING_ERROR_CANCEL_HIBERNATE = "An error occurred while attempting to cancel the booking, please try again. Booking Reference: ";
 
     public static final String BOOKING_ERROR_CANCEL_PAST = "Cannot cancel a booking from the past. Booking Reference: ";
@@ -18,14 +30,14 @@ public class CampsiteMessagesUtil {
 
     public static final String BOOKING_ERROR_CREATE_HIBERNATE = "An error occurred while attempting to create the booking. Please make sure the campsite is available on the given dates and try again.";
 
-    public static final String BOOKING_ERROR_SEARCH_HIBERNATE = "An error occurred while trying to search for the booking, please try again. Booking Reference: ";
-
     public static final String BOOKING_ERROR_UPDATE_HIBERNATE = "An error occurred while attempting to update the booking. Please make sure the campsite is available on the given dates, that the booking is not in the past, and try again. Booking Reference: ";
 
     public static final String BOOKING_ERROR_UPDATE_NON_EXISTENT = "Cannot update the booking as it does not exist: ";
 
     public static final String BOOKING_SUCCESS = "Booking Reference: ";
 
+    public static final String DATABASE_ERROR_UNAVAILABLE = "The database is currently unavailable, please try again later.";
+
     public static final String DATE_ERROR_FORMAT = "Please provide a valid format for the arrival and departure dates (YYYY-MM-DD).";
 
     public static final String DATE_ERROR_NOT_PROVIDED = "Invalid date range: The arrival date and the departure date need to be provided in order to create a booking.";
@@ -38,13 +50,39 @@ public class CampsiteMessagesUtil {
 
     public static final String DATE_ERROR_RANGE_DEPARTURE_BEFORE_ARRIVAL = "Invalid date range: The arrival date must be before the departure date.";
 
+    public static final String NIGHTS_BACKFILL_SUCCESS = "Nights claimed: ";
+
+    public static final String NIGHTS_ERROR_BACKFILL_HIBERNATE = "An error occurred while claiming the nights of the existing bookings. Nights claimed before the error: ";
+
+    public static final String OUTBOX_ERROR_HIBERNATE = "An error occurred while trying to relay the booking events, they will be relayed again.";
+
+    public static final String STAY_WINDOWS_ERROR_LIMIT = "Invalid limit: The limit must be between 1 and 31.";
+
+    public static final String STAY_WINDOWS_ERROR_NIGHTS = "Invalid number of nights: A stay must be between 1 and 3 nights.";
+
+    public static final String USER_BOOKINGS_ERROR_CURSOR = "Invalid cursor, please use the next value of the previous page: ";
+
+    public static final String USER_BOOKINGS_ERROR_HIBERNATE = "An error occurred while trying to list the bookings, please try again. User: ";
+
+    public static final String USER_BOOKINGS_ERROR_LIMIT = "Invalid limit: The limit must be between 1 and 100.";
+
     public static final String USER_CREATE_ERROR_HIBERNATE = "An error occurred while trying to create the user, please try again.";
 
     public static final String USER_CREATE_SUCCESS = "User was successfully created";
 
     public static final String USER_ERROR_ALREADY_EXISTS = "A user with the provided email already exists: ";
 
+    public static final String USER_ERROR_EXPORT_HIBERNATE = "An error occurred while trying to read the users, please try again.";
+
+    public static final String USER_ERROR_NON_EXISTENT = "The user does not exist: ";
+
     public static final String USER_ERROR_NOT_PROVIDED = "The user's first name, last name, and email must be provided.";
 
     public static final String USER_ERROR_SEARCH_HIBERNATE = "An error occurred while trying to search for the user, please try again. User email: ";
+
+    public static final String WAITLIST_ERROR_FULL = "The waitlist is full, please try again later.";
+
+    public static final String WAITLIST_ERROR_NON_EXISTENT = "The waitlist entry does not exist: ";
+
+    public static final String WAITLIST_SUCCESS = "Waitlist Reference: ";
 }
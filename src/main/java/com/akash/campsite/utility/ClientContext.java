@@ -0,0 +1,65 @@
+package com.akash.campsite.utility;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Holds the read-your-writes state of the client making the current request. The state is carried by the client
+ * itself (see ClientContextInterceptor) rather than kept by the instance that served the write, so that it holds
+ * whichever instance of the application the client's next request reaches.
+ */
+public class ClientContext {
+
+    private static final ThreadLocal<ClientContext> CURRENT = new ThreadLocal<>();
+
+    private long readPrimaryUntilMillis;
+
+    private final LongConsumer pinListener;
+
+    private ClientContext(final long readPrimaryUntilMillis, final LongConsumer pinListener) {
+        this.readPrimaryUntilMillis = readPrimaryUntilMillis;
+        this.pinListener = pinListener;
+    }
+
+    /**
+     * Starts the context of a request.
+     *
+     * @param readPrimaryUntilMillis    Time (epoch millis) until which the client asked its reads to go to the primary,
+     *                                  0 if it did not
+     * @param pinListener               Called with the new time when the request pins the client's reads to the primary,
+     *                                  so that it can be handed back to the client
+     */
+    public static void begin(final long readPrimaryUntilMillis, final LongConsumer pinListener) {
+        CURRENT.set(new ClientContext(readPrimaryUntilMillis, pinListener));
+    }
+
+    /**
+     * @return  Time (epoch millis) until which the current client's reads go to the primary, 0 if the current thread is
+     *          not serving a request or the client did not write recently
+     */
+    public static long getReadPrimaryUntilMillis() {
+        final ClientContext context = CURRENT.get();
+        return context != null ? context.readPrimaryUntilMillis : 0;
+    }
+
+    /**
+     * Pins the current client's reads to the primary until the given time, for this request and, through the
+     * pinListener, for the next ones. Does nothing if the current thread is not serving a request.
+     *
+     * @param untilMillis   Time (epoch millis) until which the reads go to the primary
+     */
+    public static void pinReadsToPrimary(final long untilMillis) {
+        final ClientContext context = CURRENT.get();
+
+        if (context != null && untilMillis > context.readPrimaryUntilMillis) {
+            context.readPrimaryUntilMillis = untilMillis;
+            context.pinListener.accept(untilMillis);
+        }
+    }
+
+    /**
+     * Clears the context once the request is complete.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+}
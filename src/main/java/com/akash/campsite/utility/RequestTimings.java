@@ -0,0 +1,183 @@
+package com.akash.campsite.utility;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the time spent in each phase of the current request (validation, connection acquisition, query, commit) so that it
+ * can be returned in the Server-Timing response header. The timings are collected for the duration of a request started
+ * by the RequestTimingFilter. Outside of a request, e.g. in scheduled tasks, timing a phase does nothing.
+ *
+ * The bytes allocated by the read-only queries of the request are summed the same way, so that the RequestTimingFilter
+ * can record the read allocation of each request.
+ *
+ * A request whose body is streamed by another thread (e.g. a StreamingResponseBody) takes its timings along with
+ * detach() and attach(), so that the phases of the streaming thread are added to the same request.
+ *
+ * Usage:
+ *      final long start = RequestTimings.start();
+ *      ...
+ *      RequestTimings.stop(RequestTimings.QUERY, start);
+ */
+public class RequestTimings {
+
+    public static final String VALIDATE = "validate";
+
+    public static final String SESSION = "session";
+
+    public static final String QUERY = "query";
+
+    public static final String COMMIT = "commit";
+
+    public static final String TOTAL = "total";
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+
+    // Phase -> accumulated nanoseconds, in the order the phases first occurred
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    // Bytes allocated by the read-only queries, -1 until one is recorded
+    private long readAllocatedBytes = -1;
+
+    private RequestTimings() {}
+
+    /**
+     * Starts collecting the timings of the request served by the current thread.
+     */
+    public static void begin() {
+        CURRENT.set(new RequestTimings());
+    }
+
+    /**
+     * Stops collecting the timings of the current request.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Stops collecting the timings of the current request on the current thread, so that another thread can continue.
+     *
+     * @return  Timings of the current request, or null when the timings are not being collected
+     */
+    public static RequestTimings detach() {
+        final RequestTimings timings = CURRENT.get();
+        CURRENT.remove();
+        return timings;
+    }
+
+    /**
+     * Continues collecting the timings of a request on the current thread. Does nothing if timings is null.
+     *
+     * @param timings   Timings returned by detach()
+     */
+    public static void attach(final RequestTimings timings) {
+        if (timings != null) {
+            CURRENT.set(timings);
+        }
+    }
+
+    /**
+     * @return  Boolean indicating whether the timings of a request are being collected by the current thread
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Returns the start time of a phase. Any value is a valid System.nanoTime(), whether the phase is timed is decided
+     * by stop().
+     *
+     * @return  System.nanoTime()
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since startNanos to the phase. Does nothing when the timings are not being collected, or
+     * when the phase began before the current request did.
+     *
+     * @param phase         Name of the phase
+     * @param startNanos    Value returned by start() when the phase began
+     */
+    public static void stop(final String phase, final long startNanos) {
+        final RequestTimings timings = CURRENT.get();
+
+        // nanoTime values may be negative or wrap around, only their difference is meaningful
+        if (timings != null && startNanos - timings.startNanos >= 0) {
+            timings.phaseNanos.merge(phase, System.nanoTime() - startNanos, Long::sum);
+        }
+    }
+
+    /**
+     * Adds the bytes allocated by a read-only query to the current request. Does nothing outside of a request.
+     *
+     * @param bytes Bytes allocated by the query
+     */
+    public static void addReadAllocation(final long bytes) {
+        final RequestTimings timings = CURRENT.get();
+
+        if (timings != null) {
+            timings.readAllocatedBytes = Math.max(timings.readAllocatedBytes, 0) + bytes;
+        }
+    }
+
+    /**
+     * @return  Bytes allocated by the read-only queries of the current request, or -1 if it made none or is not timed
+     */
+    public static long getReadAllocatedBytes() {
+        final RequestTimings timings = CURRENT.get();
+        return timings != null ? timings.readAllocatedBytes : -1;
+    }
+
+    /**
+     * @return  Nanoseconds elapsed since the current request started, or 0 when the timings are not being collected
+     */
+    public static long getTotalNanos() {
+        final RequestTimings timings = CURRENT.get();
+        return timings != null ? System.nanoTime() - timings.startNanos : 0;
+    }
+
+    /**
+     * @return  Copy of the milliseconds spent in each phase of the current request, followed by the total
+     */
+    public static Map<String, Double> getPhaseMillis() {
+        final Map<String, Double> phaseMillis = new LinkedHashMap<>();
+        final RequestTimings timings = CURRENT.get();
+
+        if (timings != null) {
+            timings.phaseNanos.forEach((phase, nanos) -> phaseMillis.put(phase, toMillis(nanos)));
+            phaseMillis.put(TOTAL, toMillis(System.nanoTime() - timings.startNanos));
+        }
+        return phaseMillis;
+    }
+
+    /**
+     * Formats the timings of the current request as a Server-Timing header value, e.g. query;dur=4.21, total;dur=6.02
+     *
+     * @return  Server-Timing header value, or null when the timings are not being collected
+     */
+    public static String toServerTiming() {
+        if (!isActive()) {
+            return null;
+        }
+
+        final StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, Double> entry : getPhaseMillis().entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append(";dur=").append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static double toMillis(final long nanos) {
+        // Rounded to the microsecond
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
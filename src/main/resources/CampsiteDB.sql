@@ -18,10 +18,25 @@ USE CAMPSITE;
            ARRIVAL_DATE DATE NOT NULL UNIQUE,
            DEPARTURE_DATE DATE NOT NULL UNIQUE,
            PRIMARY KEY(BOOKING_ID),
-           FOREIGN KEY(USER_ID) REFERENCES USERS( USER_ID)
+           FOREIGN KEY(USER_ID) REFERENCES USERS( USER_ID),
+           #Keyset pagination of a user's bookings seeks to the cursor and scans one page of this index
+           INDEX BOOKINGS_USER_ARRIVAL_IDX (USER_ID, ARRIVAL_DATE, BOOKING_ID)
          );
 
-         #Triggers to make sure that the ARRIVAL_DATE is before or equal to the DEPARTURE_DATE and that booking is possible within the date range
+         # Calendar of the booked nights, one row per night. A Booking claims its nights by inserting their rows, in
+         # ascending order, in the transaction that writes the Booking. The primary key rejects a night claimed by another
+         # Booking, so overlaps are detected in O(nights requested) and concurrent bookings of a night are serialized.
+         # When the table is added to an existing database, POST /campsite/admin/nights/backfill claims the nights of the
+         # Bookings already made.
+         DROP TABLE IF EXISTS CAMPSITE_NIGHTS;
+         CREATE TABLE CAMPSITE_NIGHTS(
+           NIGHT_DATE DATE NOT NULL,
+           BOOKING_ID INT NOT NULL,
+           PRIMARY KEY(NIGHT_DATE),
+           FOREIGN KEY(BOOKING_ID) REFERENCES BOOKINGS(BOOKING_ID)
+         );
+
+         #Triggers to make sure that the ARRIVAL_DATE is before the DEPARTURE_DATE. Overlaps are rejected by CAMPSITE_NIGHTS
          DELIMITER $$
          DROP TRIGGER IF EXISTS DATES_INSERT_TRIGGER
          $$
@@ -29,22 +44,9 @@ USE CAMPSITE;
          BEFORE INSERT ON BOOKINGS
          FOR EACH ROW
          BEGIN
-            DECLARE case1Count INT;
-            DECLARE case2Count INT;
-            DECLARE case3Count INT;
-            DECLARE case4Count INT;
             IF (NEW.ARRIVAL_DATE >= NEW.DEPARTURE_DATE) THEN
                 SIGNAL SQLSTATE '45000'
                      SET MESSAGE_TEXT = 'The arrival date cannot be on or after the departure date';
-            ELSE
-                SET case1Count = (SELECT COUNT(*) FROM BOOKINGS WHERE ARRIVAL_DATE < NEW.ARRIVAL_DATE AND NEW.ARRIVAL_DATE < DEPARTURE_DATE);
-                SET case2Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.ARRIVAL_DATE < ARRIVAL_DATE AND ARRIVAL_DATE < NEW.DEPARTURE_DATE);
-                SET case3Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.ARRIVAL_DATE < ARRIVAL_DATE AND NEW.DEPARTURE_DATE > DEPARTURE_DATE);
-                SET case4Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.ARRIVAL_DATE > ARRIVAL_DATE AND NEW.DEPARTURE_DATE < DEPARTURE_DATE);
-                IF ((case1Count + case2Count + case3Count + case4Count) > 0) THEN
-                    SIGNAL SQLSTATE '45000'
-                        SET MESSAGE_TEXT = 'The campsite is already booked between the requested dates';
-                END IF;
             END IF;
          END;
          $$
@@ -56,22 +58,9 @@ USE CAMPSITE;
          BEFORE UPDATE ON BOOKINGS
          FOR EACH ROW
          BEGIN
-            DECLARE case1Count INT;
-            DECLARE case2Count INT;
-            DECLARE case3Count INT;
-            DECLARE case4Count INT;
             IF (NEW.ARRIVAL_DATE >= NEW.DEPARTURE_DATE) THEN
                 SIGNAL SQLSTATE '45000'
                      SET MESSAGE_TEXT = 'The arrival date cannot be on or after the departure date';
-            ELSE
-                SET case1Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.BOOKING_ID != BOOKING_ID AND ARRIVAL_DATE < NEW.ARRIVAL_DATE AND NEW.ARRIVAL_DATE < DEPARTURE_DATE);
-                SET case2Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.BOOKING_ID != BOOKING_ID AND NEW.ARRIVAL_DATE < ARRIVAL_DATE AND ARRIVAL_DATE < NEW.DEPARTURE_DATE);
-                SET case3Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.BOOKING_ID != BOOKING_ID AND NEW.ARRIVAL_DATE < ARRIVAL_DATE AND NEW.DEPARTURE_DATE > DEPARTURE_DATE);
-                SET case4Count = (SELECT COUNT(*) FROM BOOKINGS WHERE NEW.BOOKING_ID != BOOKING_ID AND NEW.ARRIVAL_DATE > ARRIVAL_DATE AND NEW.DEPARTURE_DATE < DEPARTURE_DATE);
-                IF ((case1Count + case2Count + case3Count + case4Count) > 0) THEN
-                    SIGNAL SQLSTATE '45000'
-                        SET MESSAGE_TEXT = 'The campsite is already booked between the requested dates';
-                END IF;
             END IF;
          END;
          $$
@@ -111,4 +100,51 @@ USE CAMPSITE;
          $$
 
          #A trigger to make sure that the ARRIVAL_DATE and DEPARTURE_DATE are both in the future was not created
-         #in case the DB gets accidentally wiped out and past data needs to be restored with a backup.
\ No newline at end of file
+         #in case the DB gets accidentally wiped out and past data needs to be restored with a backup.
+
+         DELIMITER ;
+
+         # Heartbeat written to the primary and read back from the replica to measure replication lag
+         DROP TABLE IF EXISTS REPLICA_HEARTBEAT;
+         CREATE TABLE REPLICA_HEARTBEAT(
+           HEARTBEAT_ID INT NOT NULL,
+           BEAT_MILLIS BIGINT NOT NULL,
+           PRIMARY KEY(HEARTBEAT_ID)
+         );
+         INSERT INTO REPLICA_HEARTBEAT (HEARTBEAT_ID, BEAT_MILLIS) VALUES (1, 0);
+
+         # Log of the changes made to BOOKINGS, appended in the same transaction as the change. Every instance of the
+         # application tails it to keep its local caches coherent. Rows older than the retention period are purged.
+         DROP TABLE IF EXISTS BOOKING_CHANGES;
+         CREATE TABLE BOOKING_CHANGES(
+           CHANGE_ID BIGINT NOT NULL AUTO_INCREMENT,
+           CHANGE_TYPE VARCHAR(10) NOT NULL,
+           BOOKING_ID INT,
+           USER_ID INT,
+           ARRIVAL_DATE DATE,
+           DEPARTURE_DATE DATE,
+           PREVIOUS_ARRIVAL_DATE DATE,
+           PREVIOUS_DEPARTURE_DATE DATE,
+           CHANGED_AT BIGINT NOT NULL,
+           PRIMARY KEY(CHANGE_ID),
+           INDEX BOOKING_CHANGES_CHANGED_AT_IDX (CHANGED_AT)
+         );
+
+         # Events of the changes made to BOOKINGS, written in the same transaction as the change and deleted once the
+         # relay has published them to the configured sink. Unlike BOOKING_CHANGES, the rows only live until published.
+         # CLAIMED_BY and CLAIMED_UNTIL record the relay publishing the event and until when (epoch millis) it may do so.
+         DROP TABLE IF EXISTS BOOKING_OUTBOX;
+         CREATE TABLE BOOKING_OUTBOX(
+           OUTBOX_ID BIGINT NOT NULL AUTO_INCREMENT,
+           CHANGE_TYPE VARCHAR(10) NOT NULL,
+           BOOKING_ID INT,
+           USER_ID INT,
+           ARRIVAL_DATE DATE,
+           DEPARTURE_DATE DATE,
+           PREVIOUS_ARRIVAL_DATE DATE,
+           PREVIOUS_DEPARTURE_DATE DATE,
+           CHANGED_AT BIGINT NOT NULL,
+           CLAIMED_BY VARCHAR(36),
+           CLAIMED_UNTIL BIGINT NOT NULL DEFAULT 0,
+           PRIMARY KEY(OUTBOX_ID)
+         );
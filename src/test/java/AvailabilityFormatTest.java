@@ -0,0 +1,136 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.CircuitOpenException;
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.service.AvailabilityFormat;
+import com.akash.campsite.service.AvailabilitySnapshot;
+import com.akash.campsite.service.CampsiteService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the serialization of the availability in every format, for a 10 day range where the
+ * 3rd, 4th and 9th days are booked, and the choice of the format from the Accept header.
+ */
+@RunWith(SpringRunner.class)
+public class AvailabilityFormatTest {
+
+    private CampsiteService campsiteService;
+
+    private CampsiteDAO campsiteDAO;
+
+    private AvailabilitySnapshot availabilitySnapshot;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private Availability availability;
+
+    private long startEpochDay;
+
+    @Before
+    public void setup() {
+        campsiteDAO = mock(CampsiteDAO.class);
+        availabilitySnapshot = mock(AvailabilitySnapshot.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        campsiteService = new CampsiteService();
+        ReflectionTestUtils.setField(campsiteService, "campsiteDAO", campsiteDAO);
+        ReflectionTestUtils.setField(campsiteService, "availabilitySnapshot", availabilitySnapshot);
+        ReflectionTestUtils.setField(campsiteService, "meterRegistry", meterRegistry);
+        startEpochDay = LocalDate.of(2030, 1, 1).toEpochDay();
+
+        final BitSet freeDays = new BitSet();
+        freeDays.set(0, 10);
+        freeDays.clear(2, 4);
+        freeDays.clear(8);
+        availability = new Availability(startEpochDay, 10, freeDays);
+    }
+
+    @Test
+    public void dateListIsTheListOfAvailableDates() {
+        assertEquals("[2030-01-01, 2030-01-02, 2030-01-05, 2030-01-06, 2030-01-07, 2030-01-08, 2030-01-10]", render(AvailabilityFormat.DATE_LIST));
+    }
+
+    @Test
+    public void intervalsAreHalfOpen() {
+        assertEquals("[[\"2030-01-01\",\"2030-01-03\"],[\"2030-01-05\",\"2030-01-09\"],[\"2030-01-10\",\"2030-01-11\"]]", render(AvailabilityFormat.INTERVALS));
+    }
+
+    @Test
+    public void bitmaskHasStartDayLengthAndOneBitPerDay() {
+        final ByteBuffer buffer = ByteBuffer.wrap(campsiteService.renderAvailability(availability, AvailabilityFormat.BITMASK));
+
+        assertEquals(8 + 4 + 2, buffer.remaining());
+        assertEquals(startEpochDay, buffer.getLong());
+        assertEquals(10, buffer.getInt());
+        assertEquals((byte) 0b11110011, buffer.get());
+        assertEquals((byte) 0b00000010, buffer.get());
+    }
+
+    @Test
+    public void responseSizeIsRecordedPerFormat() {
+        render(AvailabilityFormat.BITMASK);
+
+        assertEquals(14, meterRegistry.get("campsite.availability.response.bytes").tag("format", "BITMASK").summary().totalAmount(), 0);
+    }
+
+    @Test
+    public void availabilityReadIsKeptAndServedWhileTheCircuitIsOpen() {
+        final LocalDate arrivalDate = LocalDate.now().plusDays(1);
+        final LocalDate departureDate = arrivalDate.plusDays(9);
+        when(campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false)).thenReturn(Collections.emptyList());
+
+        campsiteService.getAvailability(arrivalDate.toString(), departureDate.toString());
+        verify(availabilitySnapshot).update(any(Availability.class), anyLong());
+
+        when(campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false)).thenThrow(new CircuitOpenException("Open", 1000));
+        when(availabilitySnapshot.get(arrivalDate, departureDate)).thenReturn(availability);
+        assertSame(availability, campsiteService.getAvailability(arrivalDate.toString(), departureDate.toString()));
+    }
+
+    @Test
+    public void dateListIsTheDefaultFormat() {
+        assertEquals(AvailabilityFormat.DATE_LIST, AvailabilityFormat.fromAcceptHeader(null));
+        assertEquals(AvailabilityFormat.DATE_LIST, AvailabilityFormat.fromAcceptHeader("*/*"));
+        assertEquals(AvailabilityFormat.DATE_LIST, AvailabilityFormat.fromAcceptHeader("application/xml"));
+        assertEquals(AvailabilityFormat.DATE_LIST, AvailabilityFormat.fromAcceptHeader("not a media type"));
+    }
+
+    @Test
+    public void formatsAreMatchedByOrderOfQuality() {
+        assertEquals(AvailabilityFormat.DATE_LIST,
+                AvailabilityFormat.fromAcceptHeader("application/vnd.campsite.bitmask;q=0.5, text/plain"));
+        assertEquals(AvailabilityFormat.BITMASK,
+                AvailabilityFormat.fromAcceptHeader("text/plain;q=0.1, application/vnd.campsite.bitmask;q=0.9"));
+        assertEquals(AvailabilityFormat.INTERVALS,
+                AvailabilityFormat.fromAcceptHeader("*/*;q=0.1, application/vnd.campsite.intervals+json"));
+    }
+
+    @Test
+    public void formatsOfQualityZeroAreNotPicked() {
+        assertEquals(AvailabilityFormat.INTERVALS, AvailabilityFormat.fromAcceptHeader("text/plain;q=0, */*"));
+        assertEquals(AvailabilityFormat.BITMASK,
+                AvailabilityFormat.fromAcceptHeader("text/plain;q=0, application/vnd.campsite.intervals+json;q=0"));
+    }
+
+    private String render(final AvailabilityFormat format) {
+        return new String(campsiteService.renderAvailability(availability, format), StandardCharsets.UTF_8);
+    }
+}
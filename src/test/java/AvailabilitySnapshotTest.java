@@ -0,0 +1,62 @@
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.service.AvailabilitySnapshot;
+import com.akash.campsite.service.BookingChangeListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests which resets discard the last known availability.
+ */
+@RunWith(SpringRunner.class)
+public class AvailabilitySnapshotTest {
+
+    private AvailabilitySnapshot snapshot;
+
+    private LocalDate arrivalDate;
+
+    private LocalDate departureDate;
+
+    @Before
+    public void setup() {
+        snapshot = new AvailabilitySnapshot();
+        arrivalDate = LocalDate.now().plusDays(1);
+        departureDate = arrivalDate.plusDays(2);
+
+        final BitSet freeDays = new BitSet(3);
+        freeDays.set(0, 3);
+        snapshot.update(new Availability(arrivalDate.toEpochDay(), 3, freeDays), 1000);
+    }
+
+    @Test
+    public void snapshotIsKeptWhileTheChangesAreStale() {
+        snapshot.onReset(BookingChangeListener.ResetReason.STALE);
+
+        final Availability availability = snapshot.get(arrivalDate, departureDate);
+        assertNotNull(availability);
+        assertEquals(3, availability.getFreeDays().cardinality());
+        assertEquals(1000, availability.getStaleSinceMillis());
+    }
+
+    @Test
+    public void snapshotIsDiscardedOnImport() {
+        snapshot.onReset(BookingChangeListener.ResetReason.IMPORT);
+
+        assertNull(snapshot.get(arrivalDate, departureDate));
+    }
+
+    @Test
+    public void snapshotIsDiscardedWhenChangesAreMissed() {
+        snapshot.onReset(BookingChangeListener.ResetReason.MISSED_CHANGES);
+
+        assertNull(snapshot.get(arrivalDate, departureDate));
+    }
+}
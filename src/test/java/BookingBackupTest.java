@@ -0,0 +1,128 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.service.BackupFormat;
+import com.akash.campsite.service.BookingBackupService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that a backup of the bookings restores into an empty in-memory database.
+ */
+@RunWith(SpringRunner.class)
+public class BookingBackupTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SessionRouter sourceRouter;
+
+    private SessionRouter targetRouter;
+
+    private CampsiteDAO sourceDAO;
+
+    private CampsiteDAO targetDAO;
+
+    private BookingBackupService sourceBackup;
+
+    private BookingBackupService targetBackup;
+
+    private int userId;
+
+    private int bookingId;
+
+    @Before
+    public void setup() {
+        sourceRouter = H2TestDatabase.newSessionRouter("backup-source", meterRegistry);
+        targetRouter = H2TestDatabase.newSessionRouter("backup-target", meterRegistry);
+        sourceDAO = H2TestDatabase.newDao(sourceRouter, meterRegistry);
+        targetDAO = H2TestDatabase.newDao(targetRouter, meterRegistry);
+        sourceBackup = createBackupService(sourceDAO);
+        targetBackup = createBackupService(targetDAO);
+
+        userId = sourceDAO.createUser("Jon, \"Johnny\"", "Doe", "jondoe@gmail.com");
+        final LocalDate today = LocalDate.now();
+        bookingId = sourceDAO.createBooking(userId, today.plusDays(1), today.plusDays(3));
+    }
+
+    @After
+    public void tearDown() {
+        sourceRouter.close();
+        targetRouter.close();
+    }
+
+    @Test
+    public void csvBackupRestoresIntoAnEmptyDatabase() throws IOException {
+        assertRestored(BackupFormat.CSV);
+    }
+
+    @Test
+    public void ndjsonBackupRestoresIntoAnEmptyDatabase() throws IOException {
+        assertRestored(BackupFormat.NDJSON);
+    }
+
+    @Test
+    public void csvBackupWithLineBreaksInNamesRestores() throws IOException {
+        final int otherUserId = sourceDAO.createUser("Jane\r\nMary", "Doe\nSmith\r", "janedoe@gmail.com");
+        sourceDAO.createBooking(otherUserId, LocalDate.now().plusDays(5), LocalDate.now().plusDays(6));
+
+        final ByteArrayOutputStream backup = new ByteArrayOutputStream();
+        assertEquals(2, sourceBackup.exportBookings(backup, BackupFormat.CSV));
+
+        targetBackup.importBookings(new ByteArrayInputStream(backup.toByteArray()), BackupFormat.CSV);
+
+        assertEquals(otherUserId, targetDAO.searchUserByEmail("janedoe@gmail.com"));
+        final ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        createBackupService(targetDAO).exportBookings(restored, BackupFormat.CSV);
+        assertEquals(new String(backup.toByteArray(), StandardCharsets.UTF_8), new String(restored.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void backupWithoutUsersRestoresForExistingUsers() throws IOException {
+        assertEquals(userId, targetDAO.createUser("Jon", "Doe", "jondoe@gmail.com"));
+        final LocalDate today = LocalDate.now();
+        final String backup = "bookingId,userId,arrivalDate,departureDate\n"
+                + bookingId + "," + userId + "," + today.plusDays(1) + "," + today.plusDays(3) + "\n";
+
+        targetBackup.importBookings(new ByteArrayInputStream(backup.getBytes(StandardCharsets.UTF_8)), BackupFormat.CSV);
+
+        assertEquals(bookingId, targetDAO.getUserBookingsPage(userId, null, 0, 1).get(0).getBookingId());
+    }
+
+    private void assertRestored(final BackupFormat format) throws IOException {
+        final ByteArrayOutputStream backup = new ByteArrayOutputStream();
+        assertEquals(1, sourceBackup.exportBookings(backup, format));
+
+        targetBackup.importBookings(new ByteArrayInputStream(backup.toByteArray()), format);
+
+        assertEquals(userId, targetDAO.searchUserByEmail("jondoe@gmail.com"));
+        assertEquals(bookingId, targetDAO.getUserBookingsPage(userId, null, 0, 1).get(0).getBookingId());
+
+        // Exporting the restored database gives back the same backup
+        final ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        createBackupService(targetDAO).exportBookings(restored, format);
+        assertEquals(new String(backup.toByteArray(), StandardCharsets.UTF_8), new String(restored.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private BookingBackupService createBackupService(final CampsiteDAO campsiteDAO) {
+        final BookingBackupService backupService = new BookingBackupService();
+        ReflectionTestUtils.setField(backupService, "campsiteDAO", campsiteDAO);
+        ReflectionTestUtils.setField(backupService, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(backupService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(backupService, "exportFetchSize", 100);
+        ReflectionTestUtils.setField(backupService, "importBatchSize", 100);
+        return backupService;
+    }
+}
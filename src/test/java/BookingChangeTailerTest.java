@@ -0,0 +1,222 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.pojo.BookingChange;
+import com.akash.campsite.pojo.BookingRecord;
+import com.akash.campsite.service.BookingChangeListener;
+import com.akash.campsite.service.BookingChangeTailer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import javassist.NotFoundException;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the tailing of the BOOKING_CHANGES log against an in-memory database.
+ */
+@RunWith(SpringRunner.class)
+public class BookingChangeTailerTest {
+
+    private static final long GAP_TIMEOUT_MILLIS = 200;
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private BookingChangeTailer tailer;
+
+    private final List<BookingChange> applied = new ArrayList<>();
+
+    private int resets;
+
+    private BookingChangeListener.ResetReason lastResetReason;
+
+    private int userId;
+
+    @Before
+    public void setup() {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        sessionRouter = H2TestDatabase.newSessionRouter("changes", meterRegistry);
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+        userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+
+        final BookingChangeListener listener = new BookingChangeListener() {
+            @Override
+            public void onBookingChange(final BookingChange change) {
+                applied.add(change);
+            }
+
+            @Override
+            public void onReset(final ResetReason reason) {
+                resets++;
+                lastResetReason = reason;
+            }
+        };
+
+        tailer = new BookingChangeTailer(meterRegistry);
+        ReflectionTestUtils.setField(tailer, "campsiteDAO", campsiteDAO);
+        ReflectionTestUtils.setField(tailer, "listeners", Collections.singletonList(listener));
+        ReflectionTestUtils.setField(tailer, "batchSize", 2);
+        ReflectionTestUtils.setField(tailer, "gapTimeoutMillis", GAP_TIMEOUT_MILLIS);
+        ReflectionTestUtils.setField(tailer, "maxStalenessMillis", 30000L);
+        ReflectionTestUtils.setField(tailer, "retentionMillis", 60000L);
+
+        // The first poll only positions the cursor at the end of the log
+        tailer.poll();
+    }
+
+    @After
+    public void tearDown() {
+        sessionRouter.close();
+    }
+
+    @Test
+    public void changesAreAppliedInOrder() throws NotFoundException {
+        final LocalDate today = LocalDate.now();
+        final int bookingId = campsiteDAO.createBooking(userId, today.plusDays(1), today.plusDays(2));
+        campsiteDAO.updateBooking(bookingId, today.plusDays(3), today.plusDays(4));
+        campsiteDAO.cancelBooking(bookingId);
+
+        tailer.poll();
+
+        assertEquals(3, applied.size());
+        assertEquals(BookingChange.ChangeType.CREATED, applied.get(0).getChangeType());
+        assertEquals(BookingChange.ChangeType.UPDATED, applied.get(1).getChangeType());
+        assertEquals(BookingChange.ChangeType.CANCELLED, applied.get(2).getChangeType());
+        assertTrue(applied.get(0).getChangeId() < applied.get(1).getChangeId());
+        assertTrue(applied.get(1).getChangeId() < applied.get(2).getChangeId());
+    }
+
+    @Test
+    public void changeCommittedLateInAGapIsApplied() {
+        final long lastChangeId = campsiteDAO.getLastBookingChangeId();
+        insertChange(lastChangeId + 2);
+
+        tailer.poll();
+        assertEquals(1, applied.size());
+
+        // The change skipped by the cursor commits before the gap times out
+        insertChange(lastChangeId + 1);
+
+        tailer.poll();
+        assertEquals(2, applied.size());
+        assertEquals(lastChangeId + 1, applied.get(1).getChangeId());
+    }
+
+    @Test
+    public void gapIsSkippedAfterTimeout() throws InterruptedException {
+        final long lastChangeId = campsiteDAO.getLastBookingChangeId();
+        insertChange(lastChangeId + 2);
+
+        tailer.poll();
+        Thread.sleep(GAP_TIMEOUT_MILLIS + 50);
+        tailer.poll();
+
+        // The change shows up after the gap was given up, it is not applied
+        insertChange(lastChangeId + 1);
+        tailer.poll();
+
+        assertEquals(1, applied.size());
+        assertEquals(lastChangeId + 2, applied.get(0).getChangeId());
+    }
+
+    @Test
+    public void resetChangeResetsTheListeners() {
+        final LocalDate today = LocalDate.now();
+        campsiteDAO.importBookings(Collections.singletonList(
+                new BookingRecord(100, userId, today.plusDays(1), today.plusDays(2), null, null, null)).iterator(), 10);
+
+        tailer.poll();
+
+        assertEquals(0, applied.size());
+        assertEquals(1, resets);
+        assertEquals(BookingChangeListener.ResetReason.IMPORT, lastResetReason);
+    }
+
+    @Test
+    public void listenersAreResetOnceStaleWithoutPolling() {
+        ReflectionTestUtils.setField(tailer, "caughtUpAtMillis", System.currentTimeMillis() - 31000);
+
+        tailer.checkStaleness();
+        tailer.checkStaleness();
+        assertEquals(1, resets);
+        assertEquals(BookingChangeListener.ResetReason.STALE, lastResetReason);
+
+        // Caught up, then stale again
+        tailer.poll();
+        tailer.checkStaleness();
+        assertEquals(1, resets);
+
+        ReflectionTestUtils.setField(tailer, "caughtUpAtMillis", System.currentTimeMillis() - 31000);
+        tailer.checkStaleness();
+        assertEquals(2, resets);
+    }
+
+    @Test
+    public void failingListenerDoesNotKeepTheOthersFromBeingReset() {
+        final BookingChangeListener failing = new BookingChangeListener() {
+            @Override
+            public void onBookingChange(final BookingChange change) {
+            }
+
+            @Override
+            public void onReset(final ResetReason reason) {
+                throw new HibernateException("Database unavailable");
+            }
+        };
+        final List<BookingChangeListener> listeners = new ArrayList<>();
+        listeners.add(failing);
+        listeners.addAll((List<BookingChangeListener>) ReflectionTestUtils.getField(tailer, "listeners"));
+        ReflectionTestUtils.setField(tailer, "listeners", listeners);
+        ReflectionTestUtils.setField(tailer, "caughtUpAtMillis", System.currentTimeMillis() - 31000);
+
+        tailer.checkStaleness();
+
+        assertEquals(1, resets);
+    }
+
+    @Test
+    public void changesOlderThanTheRetentionArePurged() {
+        final LocalDate today = LocalDate.now();
+        campsiteDAO.createBooking(userId, today.plusDays(1), today.plusDays(2));
+        final long lastChangeId = campsiteDAO.getLastBookingChangeId();
+
+        tailer.purge();
+        assertEquals(lastChangeId, campsiteDAO.getLastBookingChangeId());
+
+        // Everything logged up to now is older than a negative retention
+        ReflectionTestUtils.setField(tailer, "retentionMillis", -1000L);
+        tailer.purge();
+        assertEquals(0, campsiteDAO.getLastBookingChangeId());
+    }
+
+    /**
+     * Logs a change with the given changeId, as if its transaction had been given that id and committed now.
+     */
+    private void insertChange(final long changeId) {
+        final Session session = sessionRouter.openWriteSession();
+        try {
+            final Transaction transaction = session.beginTransaction();
+            session.createNativeQuery("INSERT INTO BOOKING_CHANGES (CHANGE_ID, CHANGE_TYPE, CHANGED_AT) VALUES (:changeId, 'CANCELLED', :changedAt)")
+                    .setParameter("changeId", changeId)
+                    .setParameter("changedAt", System.currentTimeMillis())
+                    .executeUpdate();
+            transaction.commit();
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * H2 stand-in for the DATES_INSERT_TRIGGER and DATES_UPDATE_TRIGGER_RANGE triggers of CampsiteDB.sql. Like the MySQL
+ * triggers, it rejects a Booking whose arrival date is not before its departure date with SQLSTATE 45000. Overlaps are
+ * rejected by the primary key of CAMPSITE_NIGHTS. Installed by campsite-h2.sql.
+ */
+public class BookingDatesTrigger implements Trigger {
+
+    private int arrivalDateColumn, departureDateColumn;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) throws SQLException {
+        try (ResultSet columns = conn.getMetaData().getColumns(null, schemaName, tableName, null)) {
+            while (columns.next()) {
+                final int index = columns.getInt("ORDINAL_POSITION") - 1;
+
+                // The MySQL mode of H2 reports the column names in lower case
+                switch (columns.getString("COLUMN_NAME").toUpperCase()) {
+                    case "ARRIVAL_DATE":
+                        arrivalDateColumn = index;
+                        break;
+                    case "DEPARTURE_DATE":
+                        departureDateColumn = index;
+                        break;
+                    default:
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        final Object arrivalDate = newRow[arrivalDateColumn];
+        final Object departureDate = newRow[departureDateColumn];
+
+        if (((java.util.Date) arrivalDate).compareTo((java.util.Date) departureDate) >= 0) {
+            throw new SQLException("The arrival date cannot be on or after the departure date", "45000");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
@@ -0,0 +1,322 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.CircuitBreaker;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.service.CampsiteService;
+import com.akash.campsite.service.UserIdentityCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import javassist.NotFoundException;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Multi-threaded load generator that drives CampsiteService.attemptToCreateBooking, attemptToUpdateBooking and
+ * attemptToDeleteBooking against an in-memory H2 database emulating the MySQL schema (see BookingDatesTrigger), then
+ * reports the throughput, the latency percentiles and the outcome of each operation, and the nights booked more than once.
+ *
+ * Run with:
+ *      mvn -P load-test test-compile exec:java -Dload.threads=32 -Dload.skew=3
+ *
+ * Settings (system properties):
+ *      load.threads            Number of concurrent clients (16)
+ *      load.duration-seconds   How long the load is generated (30)
+ *      load.skew               Date collision skew: 1 spreads the arrival dates uniformly over the bookable month,
+ *                              higher values concentrate them on the first days (2)
+ *      load.users              Number of distinct users making Bookings (100)
+ *      load.create-ratio       Share of the operations creating a Booking (0.6)
+ *      load.update-ratio       Share of the operations updating a Booking (0.25), the rest cancel a Booking
+ */
+public class BookingLoadHarness {
+
+    private enum Operation { CREATE, UPDATE, DELETE }
+
+    private enum Outcome { OK, REJECTED, NOT_FOUND, ERROR }
+
+    private final int threads = Integer.getInteger("load.threads", 16);
+    private final int durationSeconds = Integer.getInteger("load.duration-seconds", 30);
+    private final double skew = Double.parseDouble(System.getProperty("load.skew", "2"));
+    private final int users = Integer.getInteger("load.users", 100);
+    private final double createRatio = Double.parseDouble(System.getProperty("load.create-ratio", "0.6"));
+    private final double updateRatio = Double.parseDouble(System.getProperty("load.update-ratio", "0.25"));
+
+    private final SessionRouter sessionRouter;
+    private final CampsiteService campsiteService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // bookingIds of the Bookings created and not yet cancelled, guarded by itself
+    private final List<Integer> bookingIds = new ArrayList<>();
+
+    private BookingLoadHarness() {
+        sessionRouter = new SessionRouter(H2TestDatabase.configuration("load-" + UUID.randomUUID()), null, 0, Long.MAX_VALUE, 1000, meterRegistry);
+
+        // The failure thresholds cannot be reached, the circuit never opens during the run
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(100, 100, 2.0, 2.0, 60000, 0, 1, meterRegistry);
+        final CampsiteDAO campsiteDAO = new CampsiteDAO(sessionRouter, circuitBreaker, meterRegistry);
+
+        campsiteService = new CampsiteService();
+        ReflectionTestUtils.setField(campsiteService, "campsiteDAO", campsiteDAO);
+        ReflectionTestUtils.setField(campsiteService, "meterRegistry", meterRegistry);
+
+        for (int i = 0; i < users; i++) {
+            campsiteDAO.createUser("Load", "User" + i, email(i));
+        }
+
+        final UserIdentityCache userIdentityCache = new UserIdentityCache(campsiteDAO, meterRegistry, 100000, 1000000, 1000);
+        userIdentityCache.rebuildFilter();
+        ReflectionTestUtils.setField(campsiteService, "userIdentityCache", userIdentityCache);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final BookingLoadHarness harness = new BookingLoadHarness();
+        try {
+            harness.run();
+        } finally {
+            harness.sessionRouter.close();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("Running %d clients for %ds, skew %.1f, %d users, %.0f%% create / %.0f%% update / %.0f%% delete%n",
+                threads, durationSeconds, skew, users, createRatio * 100, updateRatio * 100, (1 - createRatio - updateRatio) * 100);
+
+        final long start = System.nanoTime();
+        final long deadline = start + durationSeconds * 1_000_000_000L;
+        final Worker[] workers = new Worker[threads];
+        final Thread[] workerThreads = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(deadline);
+            workerThreads[i] = new Thread(workers[i], "load-" + i);
+            workerThreads[i].start();
+        }
+
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+
+        // The operations in flight at the deadline finish after it
+        report(workers, (System.nanoTime() - start) / 1e9);
+        System.out.printf("%nTransactions retried after a lock conflict: %.0f%n", meterRegistry.counter("campsite.dao.lock.retries").count());
+        reportDoubleBookedNights();
+    }
+
+    /**
+     * Client running random operations until the deadline. Each client keeps its own statistics, merged at the end.
+     */
+    private class Worker implements Runnable {
+
+        private final long deadline;
+
+        // Operation -> outcome -> count
+        private final long[][] outcomes = new long[Operation.values().length][Outcome.values().length];
+
+        // Operation -> latencies in nanoseconds
+        private final long[][] latencies = new long[Operation.values().length][1024];
+        private final int[] latencyCounts = new int[Operation.values().length];
+
+        private Worker(final long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            while (System.nanoTime() < deadline) {
+                final double draw = random.nextDouble();
+                final Operation operation = draw < createRatio ? Operation.CREATE : draw < createRatio + updateRatio ? Operation.UPDATE : Operation.DELETE;
+
+                final long start = System.nanoTime();
+                final Outcome outcome = execute(operation, random);
+                record(operation, outcome, System.nanoTime() - start);
+            }
+        }
+
+        private Outcome execute(final Operation operation, final ThreadLocalRandom random) {
+            try {
+                switch (operation) {
+                    case CREATE:
+                        final LocalDate[] stay = randomStay(random);
+                        final int user = random.nextInt(users);
+                        final int bookingId = campsiteService.attemptToCreateBooking("Load", "User" + user, email(user), stay[0].toString(), stay[1].toString());
+                        addBookingId(bookingId);
+                        break;
+                    case UPDATE:
+                        final LocalDate[] newStay = randomStay(random);
+                        campsiteService.attemptToUpdateBooking(randomBookingId(random), newStay[0].toString(), newStay[1].toString());
+                        break;
+                    default:
+                        final int cancelledId = randomBookingId(random);
+                        campsiteService.attemptToDeleteBooking(cancelledId);
+                        removeBookingId(cancelledId);
+                }
+                return Outcome.OK;
+            }
+            catch (IllegalArgumentException e) {
+                return Outcome.REJECTED;
+            }
+            catch (HibernateException e) {
+                // Lock timeouts, deadlocks and connection errors are not rejections of the requested dates
+                return isRejection(e) ? Outcome.REJECTED : Outcome.ERROR;
+            }
+            catch (NotFoundException e) {
+                return Outcome.NOT_FOUND;
+            }
+            catch (RuntimeException e) {
+                return Outcome.ERROR;
+            }
+        }
+
+        /**
+         * @return  Boolean indicating whether the database refused the dates: a trigger signalled SQLSTATE 45000 or a
+         *          constraint (e.g. the night already claimed) was violated
+         */
+        private boolean isRejection(final Throwable exception) {
+            for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ConstraintViolationException) {
+                    return true;
+                }
+                if (cause instanceof SQLException) {
+                    final String sqlState = ((SQLException) cause).getSQLState();
+                    return sqlState != null && (sqlState.equals("45000") || sqlState.startsWith("23"));
+                }
+            }
+            return false;
+        }
+
+        private void record(final Operation operation, final Outcome outcome, final long latencyNanos) {
+            final int op = operation.ordinal();
+            outcomes[op][outcome.ordinal()]++;
+
+            if (latencyCounts[op] == latencies[op].length) {
+                latencies[op] = Arrays.copyOf(latencies[op], latencies[op].length * 2);
+            }
+            latencies[op][latencyCounts[op]++] = latencyNanos;
+        }
+    }
+
+    /**
+     * Picks a stay of 1 to 3 nights that passes the validation of CampsiteService. The arrival offset is drawn as
+     * horizon * u^skew, so a higher skew makes more clients compete for the first days.
+     *
+     * @return  Arrival and departure dates
+     */
+    private LocalDate[] randomStay(final ThreadLocalRandom random) {
+        final LocalDate today = LocalDate.now();
+        final int nights = 1 + random.nextInt(CampsiteService.MAX_BOOKING_NIGHTS);
+        final long lastArrivalOffset = ChronoUnit.DAYS.between(today, today.plusMonths(1)) - nights;
+
+        final long arrivalOffset = 1 + (long) ((lastArrivalOffset - 1) * Math.pow(random.nextDouble(), skew));
+        final LocalDate arrivalDate = today.plusDays(arrivalOffset);
+        return new LocalDate[] {arrivalDate, arrivalDate.plusDays(nights)};
+    }
+
+    private void addBookingId(final int bookingId) {
+        synchronized (bookingIds) {
+            bookingIds.add(bookingId);
+        }
+    }
+
+    private void removeBookingId(final int bookingId) {
+        synchronized (bookingIds) {
+            bookingIds.remove((Integer) bookingId);
+        }
+    }
+
+    /**
+     * @return  bookingId of a random live Booking, or -1 (which does not exist) if there is none
+     */
+    private int randomBookingId(final ThreadLocalRandom random) {
+        synchronized (bookingIds) {
+            return bookingIds.isEmpty() ? -1 : bookingIds.get(random.nextInt(bookingIds.size()));
+        }
+    }
+
+    private void report(final Worker[] workers, final double elapsedSeconds) {
+        System.out.printf("%n%-8s %9s %9s %9s %9s %9s %10s %9s %9s %9s %9s%n",
+                "op", "count", "ok", "rejected", "notfound", "error", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            final int op = operation.ordinal();
+            final long[] outcomes = new long[Outcome.values().length];
+            long[] latencies = new long[0];
+
+            for (Worker worker : workers) {
+                for (int i = 0; i < outcomes.length; i++) {
+                    outcomes[i] += worker.outcomes[op][i];
+                }
+
+                final int offset = latencies.length;
+                latencies = Arrays.copyOf(latencies, offset + worker.latencyCounts[op]);
+                System.arraycopy(worker.latencies[op], 0, latencies, offset, worker.latencyCounts[op]);
+            }
+
+            Arrays.sort(latencies);
+            total += latencies.length;
+
+            System.out.printf("%-8s %9d %9d %9d %9d %9d %10.1f %9.2f %9.2f %9.2f %9.2f%n", operation, latencies.length,
+                    outcomes[Outcome.OK.ordinal()], outcomes[Outcome.REJECTED.ordinal()], outcomes[Outcome.NOT_FOUND.ordinal()],
+                    outcomes[Outcome.ERROR.ordinal()], latencies.length / elapsedSeconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99), percentile(latencies, 1.0));
+        }
+        System.out.printf("%-8s %9d %59.1f%n", "total", total, total / elapsedSeconds);
+    }
+
+    private static double percentile(final long[] sortedNanos, final double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    /**
+     * Reads every Booking back and lists the nights held by more than one Booking.
+     */
+    private void reportDoubleBookedNights() {
+        // Night -> bookingIds holding it
+        final Map<LocalDate, List<Integer>> nights = new TreeMap<>();
+
+        final Session session = sessionRouter.openWriteSession();
+        try {
+            session.doWork(connection -> {
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT BOOKING_ID, ARRIVAL_DATE, DEPARTURE_DATE FROM BOOKINGS")) {
+                    while (resultSet.next()) {
+                        final LocalDate departureDate = resultSet.getDate(3).toLocalDate();
+
+                        for (LocalDate night = resultSet.getDate(2).toLocalDate(); night.isBefore(departureDate); night = night.plusDays(1)) {
+                            nights.computeIfAbsent(night, n -> new ArrayList<>()).add(resultSet.getInt(1));
+                        }
+                    }
+                }
+            });
+        } finally {
+            session.close();
+        }
+
+        nights.values().removeIf(bookings -> bookings.size() < 2);
+        System.out.printf("%nDouble-booked nights: %d%n", nights.size());
+        nights.forEach((night, bookings) -> System.out.printf("  %s booked by %s%n", night, bookings));
+    }
+
+    private static String email(final int user) {
+        return "load.user" + user + "@example.com";
+    }
+}
@@ -0,0 +1,103 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.pojo.BookingChange;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import javassist.NotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the relay of the booking events written to the outbox against an in-memory database.
+ */
+@RunWith(SpringRunner.class)
+public class BookingOutboxTest {
+
+    private static final long LEASE_MILLIS = 30000;
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private int bookingId;
+
+    @Before
+    public void setup() throws NotFoundException {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        sessionRouter = H2TestDatabase.newSessionRouter("outbox", meterRegistry);
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+
+        final int userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+        final LocalDate today = LocalDate.now();
+        bookingId = campsiteDAO.createBooking(userId, today.plusDays(1), today.plusDays(2));
+        campsiteDAO.cancelBooking(bookingId);
+    }
+
+    @After
+    public void tearDown() {
+        sessionRouter.close();
+    }
+
+    @Test
+    public void eventsAreRelayedInOrderInBatches() {
+        final List<BookingChange> published = new ArrayList<>();
+
+        assertEquals(1, campsiteDAO.relayOutbox(1, LEASE_MILLIS, published::addAll));
+        assertEquals(1, campsiteDAO.relayOutbox(1, LEASE_MILLIS, published::addAll));
+        assertEquals(0, campsiteDAO.relayOutbox(1, LEASE_MILLIS, published::addAll));
+
+        assertEquals(BookingChange.ChangeType.CREATED, published.get(0).getChangeType());
+        assertEquals(BookingChange.ChangeType.CANCELLED, published.get(1).getChangeType());
+        assertEquals(bookingId, published.get(1).getBookingId().intValue());
+    }
+
+    @Test
+    public void eventsAreKeptWhenPublishingFails() {
+        try {
+            campsiteDAO.relayOutbox(10, LEASE_MILLIS, events -> {
+                throw new IllegalStateException("Sink unavailable");
+            });
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+
+        final List<BookingChange> published = new ArrayList<>();
+        assertEquals(2, campsiteDAO.relayOutbox(10, LEASE_MILLIS, published::addAll));
+        assertEquals(2, published.size());
+    }
+
+    @Test
+    public void claimedEventsAreSkippedByOtherRelays() {
+        final int[] relayedByOther = {-1};
+
+        // Publishing happens after the claim committed, another relay can run meanwhile without waiting on locks
+        assertEquals(2, campsiteDAO.relayOutbox(10, LEASE_MILLIS, events ->
+                relayedByOther[0] = campsiteDAO.relayOutbox(10, LEASE_MILLIS, others -> fail())));
+
+        assertEquals(0, relayedByOther[0]);
+        assertEquals(0, campsiteDAO.relayOutbox(10, LEASE_MILLIS, events -> fail()));
+    }
+
+    @Test
+    public void eventsOfAnExpiredClaimAreRelayedAgain() {
+        final List<BookingChange> publishedAgain = new ArrayList<>();
+
+        // The first relay outlives its lease while publishing, another relay publishes the events again and deletes them
+        assertEquals(2, campsiteDAO.relayOutbox(10, -1, events ->
+                campsiteDAO.relayOutbox(10, LEASE_MILLIS, publishedAgain::addAll)));
+
+        assertEquals(2, publishedAgain.size());
+        assertEquals(0, campsiteDAO.relayOutbox(10, LEASE_MILLIS, events -> fail()));
+    }
+}
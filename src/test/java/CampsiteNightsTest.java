@@ -0,0 +1,191 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import javassist.NotFoundException;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.LockAcquisitionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests the claims of CAMPSITE_NIGHTS made by the Bookings against an in-memory database.
+ */
+@RunWith(SpringRunner.class)
+public class CampsiteNightsTest {
+
+    // Attempts made by CampsiteDAO before a lock conflict is given up on
+    private static final int MAX_LOCK_ATTEMPTS = 4;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private int userId;
+
+    private LocalDate today;
+
+    @Before
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        sessionRouter = spy(H2TestDatabase.newSessionRouter("nights", meterRegistry));
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+
+        userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+        today = LocalDate.now();
+    }
+
+    @After
+    public void tearDown() {
+        sessionRouter.close();
+    }
+
+    @Test
+    public void overlappingBookingIsRejected() {
+        campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(5));
+
+        try {
+            campsiteDAO.createBooking(userId, today.plusDays(4), today.plusDays(6));
+            fail();
+        }
+        catch (HibernateException e) {
+            // Expected, the 4th night is claimed
+        }
+
+        // Departure day of one Booking, arrival day of the next
+        campsiteDAO.createBooking(userId, today.plusDays(5), today.plusDays(6));
+    }
+
+    @Test
+    public void cancelledNightsCanBeBookedAgain() throws NotFoundException {
+        final int bookingId = campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(4));
+        campsiteDAO.cancelBooking(bookingId);
+
+        campsiteDAO.createBooking(userId, today.plusDays(3), today.plusDays(4));
+    }
+
+    @Test
+    public void updateKeepsItsOwnNightsAndReleasesTheOthers() throws NotFoundException {
+        final int bookingId = campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(4));
+        campsiteDAO.updateBooking(bookingId, today.plusDays(3), today.plusDays(6));
+
+        campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(3));
+    }
+
+    @Test
+    public void nightsOfExistingBookingsAreBackfilled() {
+        campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(4));
+        campsiteDAO.createBooking(userId, today.plusDays(4), today.plusDays(5));
+        campsiteDAO.createBooking(userId, today.plusDays(8), today.plusDays(9));
+
+        // As if the Bookings had been made before CAMPSITE_NIGHTS existed
+        final Session session = sessionRouter.openWriteSession();
+        try {
+            final Transaction transaction = session.beginTransaction();
+            session.createNativeQuery("DELETE FROM CAMPSITE_NIGHTS").executeUpdate();
+            transaction.commit();
+        } finally {
+            session.close();
+        }
+
+        assertEquals(4, campsiteDAO.backfillCampsiteNights(2));
+        assertEquals(0, campsiteDAO.backfillCampsiteNights(2));
+
+        try {
+            campsiteDAO.createBooking(userId, today.plusDays(3), today.plusDays(4));
+            fail();
+        }
+        catch (HibernateException e) {
+            // Expected, the 3rd night was backfilled
+        }
+    }
+
+    @Test
+    public void concurrentClaimsOfTheSameNightHaveOneWinner() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int day = 1; day <= 20; day++) {
+                final LocalDate arrivalDate = today.plusDays(day * 2);
+                final CyclicBarrier barrier = new CyclicBarrier(2);
+
+                final Future<Boolean> first = executor.submit(() -> claim(barrier, arrivalDate));
+                final Future<Boolean> second = executor.submit(() -> claim(barrier, arrivalDate));
+
+                final int winners = (first.get(30, TimeUnit.SECONDS) ? 1 : 0) + (second.get(30, TimeUnit.SECONDS) ? 1 : 0);
+                assertEquals("Winners for " + arrivalDate, 1, winners);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lockConflictIsRetried() {
+        doThrow(deadlock()).doCallRealMethod().when(sessionRouter).openWriteSession();
+
+        campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(3));
+
+        assertEquals(1, meterRegistry.counter("campsite.dao.lock.retries").count(), 0);
+    }
+
+    @Test
+    public void lockConflictIsGivenUpAfterMaxAttempts() {
+        doThrow(deadlock()).when(sessionRouter).openWriteSession();
+        clearInvocations(sessionRouter);
+
+        try {
+            campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(3));
+            fail();
+        }
+        catch (LockAcquisitionException e) {
+            // Expected
+        }
+
+        verify(sessionRouter, times(MAX_LOCK_ATTEMPTS)).openWriteSession();
+        assertEquals(MAX_LOCK_ATTEMPTS - 1, meterRegistry.counter("campsite.dao.lock.retries").count(), 0);
+        doCallRealMethod().when(sessionRouter).openWriteSession();
+    }
+
+    /**
+     * Books the night of arrivalDate once both threads are ready.
+     *
+     * @return  Boolean indicating whether the Booking was created
+     */
+    private boolean claim(final CyclicBarrier barrier, final LocalDate arrivalDate) throws Exception {
+        barrier.await();
+        try {
+            campsiteDAO.createBooking(userId, arrivalDate, arrivalDate.plusDays(1));
+            return true;
+        }
+        catch (HibernateException e) {
+            return false;
+        }
+    }
+
+    private static LockAcquisitionException deadlock() {
+        return new LockAcquisitionException("Deadlock", new SQLException("Deadlock found when trying to get lock", "40001"));
+    }
+}
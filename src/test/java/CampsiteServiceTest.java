@@ -1,10 +1,22 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.pojo.DateRange;
+import com.akash.campsite.service.AvailabilitySnapshot;
 import com.akash.campsite.service.CampsiteService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
 
 
 /**
@@ -28,6 +40,9 @@ public class CampsiteServiceTest {
     @Before
     public void setup() {
         campsiteService = new CampsiteService();
+        ReflectionTestUtils.setField(campsiteService, "campsiteDAO", mock(CampsiteDAO.class));
+        ReflectionTestUtils.setField(campsiteService, "availabilitySnapshot", mock(AvailabilitySnapshot.class));
+        ReflectionTestUtils.setField(campsiteService, "meterRegistry", new SimpleMeterRegistry());
         arrivalDateString = "2018-10-10";
         departureDateString = "2018-10-11";
         firstName = "Jon";
@@ -69,4 +84,27 @@ public class CampsiteServiceTest {
         arrivalDateString = "2018-090=09";
         campsiteService.attemptToCreateBooking(firstName, lastName, email, arrivalDateString, departureDateString);
     }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void getStayWindowsTestTooManyNights() throws Exception{
+        campsiteService.getStayWindows(4, null);
+    }
+
+    // Days 3, 4 and 9 of a 10 day range are booked
+    @Test
+    public void findStayWindowsTestOnlyFullyFreeWindows() {
+        final long startEpochDay = LocalDate.of(2030, 1, 1).toEpochDay();
+        final BitSet freeDays = new BitSet();
+        freeDays.set(0, 10);
+        freeDays.clear(2, 4);
+        freeDays.clear(8);
+
+        final List<DateRange> windows = campsiteService.findStayWindows(new Availability(startEpochDay, 10, freeDays), 2, 10);
+
+        assertEquals(4, windows.size());
+        assertEquals(LocalDate.of(2030, 1, 1), windows.get(0).getArrivalDate());
+        assertEquals(LocalDate.of(2030, 1, 3), windows.get(0).getDepartureDate());
+        assertEquals(LocalDate.of(2030, 1, 7), windows.get(3).getArrivalDate());
+        assertEquals(LocalDate.of(2030, 1, 9), windows.get(3).getDepartureDate());
+    }
 }
@@ -0,0 +1,123 @@
+import com.akash.campsite.dao.CircuitBreaker;
+import com.akash.campsite.dao.CircuitOpenException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.HibernateException;
+import org.hibernate.exception.JDBCConnectionException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the state transitions of the circuit breaker with a window of 4 calls that opens at a 50% failure rate.
+ */
+@RunWith(SpringRunner.class)
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensOnConnectionFailuresAndRejectsCalls() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 0.5, 1.0, 60000, 60000, 1, new SimpleMeterRegistry());
+
+        succeed(circuitBreaker);
+        succeed(circuitBreaker);
+        failToConnect(circuitBreaker);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        failToConnect(circuitBreaker);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        try {
+            succeed(circuitBreaker);
+            fail("The call should have been rejected");
+        }
+        catch (CircuitOpenException e) {
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+    }
+
+    @Test
+    public void errorsCausedByTheRequestAreNotFailures() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 0.5, 1.0, 60000, 60000, 1, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                circuitBreaker.execute(() -> {
+                    throw new HibernateException("Overlapping booking", new SQLException("Booking overlaps", "45000"));
+                });
+            }
+            catch (HibernateException e) {
+                // Expected
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void lockConflictsAreNotFailures() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 0.5, 1.0, 60000, 60000, 1, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                circuitBreaker.execute(() -> {
+                    throw new LockAcquisitionException("Deadlock", new SQLTransactionRollbackException("Deadlock found", "40001"));
+                });
+            }
+            catch (HibernateException e) {
+                // Expected
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void opensOnQueryTimeouts() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 2, 0.5, 1.0, 60000, 60000, 1, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                circuitBreaker.execute(() -> {
+                    throw new HibernateException("Query failed", new SQLTimeoutException("Statement cancelled due to timeout"));
+                });
+            }
+            catch (HibernateException e) {
+                // Expected
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void closesAfterSuccessfulTrialCall() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 2, 0.5, 1.0, 60000, 0, 1, new SimpleMeterRegistry());
+
+        failToConnect(circuitBreaker);
+        failToConnect(circuitBreaker);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // The circuit is open for 0ms, the next call is a trial call
+        succeed(circuitBreaker);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    private void succeed(final CircuitBreaker circuitBreaker) {
+        circuitBreaker.execute(() -> null);
+    }
+
+    private void failToConnect(final CircuitBreaker circuitBreaker) {
+        try {
+            circuitBreaker.execute(() -> {
+                throw new HibernateException("Could not open session", new JDBCConnectionException("Connection refused", new SQLException()));
+            });
+        }
+        catch (HibernateException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.CircuitBreaker;
+import com.akash.campsite.dao.SessionRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.Configuration;
+
+import java.util.UUID;
+
+/**
+ * Builds Hibernate configurations for in-memory H2 databases that stand in for MySQL in tests.
+ * The tables that are not mapped by the *.hbm.xml files, including CAMPSITE_NIGHTS, and the constraints and date triggers
+ * of the BOOKINGS and USERS tables (see BookingDatesTrigger), are created by campsite-h2.sql.
+ */
+public class H2TestDatabase {
+
+    private H2TestDatabase() {}
+
+    /**
+     * @param name  Name of the in-memory database, databases with different names are independent
+     *
+     * @return      Hibernate configuration of the in-memory database
+     */
+    public static Configuration configuration(final String name) {
+        return new Configuration().configure()
+                .setProperty("hibernate.connection.url", "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1")
+                .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+                .setProperty("hibernate.connection.username", "sa")
+                .setProperty("hibernate.connection.password", "")
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                .setProperty("hibernate.hbm2ddl.import_files", "/campsite-h2.sql");
+    }
+
+    /**
+     * @param name          Prefix of the name of the in-memory database, a new database is created on every call
+     * @param meterRegistry Registry of the router's meters
+     *
+     * @return              SessionRouter over a new in-memory database, without a replica
+     */
+    public static SessionRouter newSessionRouter(final String name, final MeterRegistry meterRegistry) {
+        return new SessionRouter(configuration(name + "-" + UUID.randomUUID()), null, 0, 0, 1000, meterRegistry);
+    }
+
+    /**
+     * @param sessionRouter SessionRouter of the database
+     * @param meterRegistry Registry of the DAO's and circuit breaker's meters
+     *
+     * @return              CampsiteDAO over the database, with a circuit breaker that the tests do not trip
+     */
+    public static CampsiteDAO newDao(final SessionRouter sessionRouter, final MeterRegistry meterRegistry) {
+        return new CampsiteDAO(sessionRouter, new CircuitBreaker(50, 10, 0.5, 0.8, 2000, 10000, 3, meterRegistry), meterRegistry);
+    }
+}
@@ -0,0 +1,95 @@
+import com.akash.campsite.controllers.RequestTimingFilter;
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.pojo.DateRange;
+import com.akash.campsite.service.SlowRequestLog;
+import com.akash.campsite.utility.AllocationMeter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the projections of the read-only queries and the recording of their allocations per request.
+ */
+@RunWith(SpringRunner.class)
+public class ReadPathTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private RequestTimingFilter requestTimingFilter;
+
+    private LocalDate today;
+
+    @Before
+    public void setup() {
+        sessionRouter = H2TestDatabase.newSessionRouter("reads", meterRegistry);
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+
+        requestTimingFilter = new RequestTimingFilter(meterRegistry);
+        ReflectionTestUtils.setField(requestTimingFilter, "slowRequestLog", new SlowRequestLog(60000, 10));
+
+        final int userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+        today = LocalDate.now();
+        campsiteDAO.createBooking(userId, today.plusDays(2), today.plusDays(4));
+        campsiteDAO.createBooking(userId, today.plusDays(10), today.plusDays(11));
+    }
+
+    @After
+    public void tearDown() {
+        sessionRouter.close();
+    }
+
+    @Test
+    public void bookedRangesAreProjectedAsEpochDays() {
+        final List<DateRange> ranges = campsiteDAO.getBookedRangesInDateRange(today.plusDays(1), today.plusDays(5), false);
+
+        assertEquals(1, ranges.size());
+        assertEquals(today.plusDays(2).toEpochDay(), ranges.get(0).getArrivalEpochDay());
+        assertEquals(today.plusDays(4).toEpochDay(), ranges.get(0).getDepartureEpochDay());
+    }
+
+    @Test
+    public void readAllocationIsRecordedOncePerRequest() throws IOException, ServletException {
+        assumeTrue(AllocationMeter.currentThreadAllocatedBytes() >= 0);
+
+        // Two read-only queries in the same request
+        requestTimingFilter.doFilter(new MockHttpServletRequest("GET", "/campsite/availability"), new MockHttpServletResponse(), (request, response) -> {
+            campsiteDAO.getBookedRangesInDateRange(today, today.plusDays(30), false);
+            campsiteDAO.searchUserByEmail("jondoe@gmail.com");
+        });
+
+        // Reads outside of a request are not recorded
+        campsiteDAO.searchUserByEmail("jondoe@gmail.com");
+
+        final DistributionSummary readAllocation = meterRegistry.get("campsite.dao.read.allocated").summary();
+        assertEquals(1, readAllocation.count());
+        assertTrue(readAllocation.totalAmount() > 0);
+    }
+
+    @Test
+    public void requestWithoutReadsRecordsNoAllocation() throws IOException, ServletException {
+        requestTimingFilter.doFilter(new MockHttpServletRequest("GET", "/campsite/availability"), new MockHttpServletResponse(), (request, response) -> {});
+
+        assertEquals(0, meterRegistry.get("campsite.dao.read.allocated").summary().count());
+    }
+}
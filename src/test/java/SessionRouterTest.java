@@ -0,0 +1,170 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.utility.ClientContext;
+import com.akash.campsite.utility.RequestTimings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the read/write splitting with two independent in-memory databases standing in for the primary and the replica.
+ * Nothing is replicated between them, so a read only sees a write if it was routed to the primary.
+ */
+@RunWith(SpringRunner.class)
+public class SessionRouterTest {
+
+    private static final long MAX_REPLICA_LAG_MILLIS = 10000;
+
+    private static final long READ_YOUR_WRITES_MILLIS = 60000;
+
+    // The lag measurement expires after 3 heartbeat intervals
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 200;
+
+    private String replicaName;
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private LocalDate arrivalDate, departureDate;
+
+    // Pins handed back to the client by the writes
+    private final List<Long> pins = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        final String id = UUID.randomUUID().toString();
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        replicaName = "replica-" + id;
+        sessionRouter = new SessionRouter(H2TestDatabase.configuration("primary-" + id), H2TestDatabase.configuration(replicaName),
+                READ_YOUR_WRITES_MILLIS, MAX_REPLICA_LAG_MILLIS, HEARTBEAT_INTERVAL_MILLIS, meterRegistry);
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+        arrivalDate = LocalDate.now().plusDays(1);
+        departureDate = arrivalDate.plusDays(2);
+    }
+
+    @After
+    public void tearDown() {
+        ClientContext.clear();
+        sessionRouter.close();
+    }
+
+    @Test
+    public void readsGoToReplicaForOtherClients() throws SQLException {
+        ClientContext.begin(0, pins::add);
+        createBooking();
+        measureCaughtUpReplica();
+
+        ClientContext.begin(0, untilMillis -> {});
+        assertTrue(campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).isEmpty());
+    }
+
+    @Test
+    public void readsArePinnedToPrimaryAfterWrite() {
+        ClientContext.begin(0, pins::add);
+        createBooking();
+
+        assertEquals(1, campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).size());
+    }
+
+    @Test
+    public void pinIsCarriedByTheClient() {
+        ClientContext.begin(0, pins::add);
+        createBooking();
+        assertFalse(pins.isEmpty());
+
+        // Next request of the same client, sending back the pin it was given
+        ClientContext.begin(pins.get(pins.size() - 1), untilMillis -> {});
+        assertEquals(1, campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).size());
+    }
+
+    @Test
+    public void pinLongerThanGrantedIsIgnored() throws SQLException {
+        ClientContext.begin(0, pins::add);
+        createBooking();
+        measureCaughtUpReplica();
+
+        ClientContext.begin(System.currentTimeMillis() + 10 * READ_YOUR_WRITES_MILLIS, untilMillis -> {});
+        assertTrue(campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).isEmpty());
+    }
+
+    @Test
+    public void readsGoToPrimaryWhenReplicaLags() {
+        createBooking();
+
+        // The heartbeat written to the primary never reaches the replica
+        sessionRouter.measureReplicaLag();
+
+        assertTrue(sessionRouter.getReplicaLagMillis() > MAX_REPLICA_LAG_MILLIS);
+        assertEquals(1, campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).size());
+    }
+
+    @Test
+    public void readsGoToPrimaryBeforeTheLagIsMeasured() {
+        createBooking();
+
+        assertEquals(-1, sessionRouter.getReplicaLagMillis());
+        assertEquals(1, campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).size());
+    }
+
+    @Test
+    public void readsGoToPrimaryOnceTheLagMeasurementExpires() throws SQLException, InterruptedException {
+        createBooking();
+        measureCaughtUpReplica();
+        assertTrue(campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).isEmpty());
+
+        // The heartbeat stops, e.g. because the scheduler is busy
+        Thread.sleep(3 * HEARTBEAT_INTERVAL_MILLIS + 100);
+
+        assertEquals(-1, sessionRouter.getReplicaLagMillis());
+        assertEquals(1, campsiteDAO.getBookedRangesInDateRange(arrivalDate, departureDate, false).size());
+    }
+
+    @Test
+    public void connectionAcquisitionIsTimedAsTheSessionPhase() {
+        RequestTimings.begin();
+        final StatelessSession session = sessionRouter.openReadStatelessSession();
+        try {
+            assertTrue(((SharedSessionContractImplementor) session).getJdbcCoordinator().getLogicalConnection().isPhysicallyConnected());
+            assertTrue(RequestTimings.getPhaseMillis().containsKey(RequestTimings.SESSION));
+        } finally {
+            session.close();
+            RequestTimings.clear();
+        }
+    }
+
+    /**
+     * Measures the lag as if the replica had caught up: the heartbeat it holds is ahead of the one written to the primary.
+     */
+    private void measureCaughtUpReplica() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:" + replicaName + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE REPLICA_HEARTBEAT SET BEAT_MILLIS = " + Long.MAX_VALUE + " WHERE HEARTBEAT_ID = 1");
+        }
+        sessionRouter.measureReplicaLag();
+        assertEquals(0, sessionRouter.getReplicaLagMillis());
+    }
+
+    private void createBooking() {
+        final int userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+        campsiteDAO.createBooking(userId, arrivalDate, departureDate);
+    }
+}
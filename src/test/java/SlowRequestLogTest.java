@@ -0,0 +1,118 @@
+import com.akash.campsite.controllers.RequestTimingFilter;
+import com.akash.campsite.controllers.ServerTimingAdvice;
+import com.akash.campsite.pojo.SlowRequest;
+import com.akash.campsite.service.SlowRequestLog;
+import com.akash.campsite.utility.RequestTimings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the slow request ring buffer and the collection of the request timings.
+ */
+@RunWith(SpringRunner.class)
+public class SlowRequestLogTest {
+
+    @Test
+    public void oldestRequestsAreReplacedOnceFull() {
+        final SlowRequestLog slowRequestLog = new SlowRequestLog(100, 2);
+
+        for (int i = 1; i <= 3; i++) {
+            slowRequestLog.record(new SlowRequest(i, "GET", "/campsite/availability", 200, 150, Collections.emptyMap()));
+        }
+
+        final List<SlowRequest> recent = slowRequestLog.getRecent();
+        assertEquals(2, recent.size());
+        assertEquals(3, recent.get(0).getStartedAtMillis());
+        assertEquals(2, recent.get(1).getStartedAtMillis());
+        assertEquals(3, slowRequestLog.getRecordedCount());
+    }
+
+    @Test
+    public void thresholdIsInMilliseconds() {
+        final SlowRequestLog slowRequestLog = new SlowRequestLog(100, 2);
+
+        assertFalse(slowRequestLog.isSlow(99_000_000L));
+        assertTrue(slowRequestLog.isSlow(100_000_000L));
+    }
+
+    @Test
+    public void timingsAreOnlyCollectedDuringARequest() {
+        RequestTimings.stop(RequestTimings.QUERY, RequestTimings.start());
+        assertNull(RequestTimings.toServerTiming());
+
+        RequestTimings.begin();
+        try {
+            RequestTimings.stop(RequestTimings.QUERY, RequestTimings.start());
+            final String serverTiming = RequestTimings.toServerTiming();
+
+            assertTrue(serverTiming.startsWith("query;dur="));
+            assertTrue(serverTiming.contains(", total;dur="));
+        } finally {
+            RequestTimings.clear();
+        }
+    }
+
+    @Test
+    public void streamedResponseIsTimedUntilTheBodyIsWritten() throws IOException, ServletException {
+        final SlowRequestLog slowRequestLog = new SlowRequestLog(0, 2);
+        final RequestTimingFilter requestTimingFilter = new RequestTimingFilter(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(requestTimingFilter, "slowRequestLog", slowRequestLog);
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/campsite/admin/bookings/export");
+        request.setAsyncSupported(true);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // The controller returns before the body is written
+        requestTimingFilter.doFilter(request, response, (servletRequest, servletResponse) -> {
+            RequestTimings.stop(RequestTimings.VALIDATE, RequestTimings.start());
+            servletRequest.startAsync();
+        });
+
+        assertTrue(response.getHeader(ServerTimingAdvice.SERVER_TIMING_HEADER).startsWith("validate;dur="));
+        assertEquals(0, slowRequestLog.getRecordedCount());
+        assertFalse(RequestTimings.isActive());
+
+        // The body is written by the streaming thread
+        final ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        final Callable<Void> task = () -> null;
+        requestTimingFilter.preProcess(webRequest, task);
+        RequestTimings.stop(RequestTimings.QUERY, RequestTimings.start());
+        requestTimingFilter.postProcess(webRequest, task, null);
+
+        assertEquals(1, slowRequestLog.getRecordedCount());
+        assertTrue(slowRequestLog.getRecent().get(0).getPhaseMillis().containsKey(RequestTimings.VALIDATE));
+        assertTrue(slowRequestLog.getRecent().get(0).getPhaseMillis().containsKey(RequestTimings.QUERY));
+        assertFalse(RequestTimings.isActive());
+    }
+
+    @Test
+    public void phaseStartedBeforeTheRequestIsNotTimed() {
+        final long start = RequestTimings.start();
+
+        RequestTimings.begin();
+        try {
+            RequestTimings.stop(RequestTimings.QUERY, start);
+
+            assertFalse(RequestTimings.getPhaseMillis().containsKey(RequestTimings.QUERY));
+        } finally {
+            RequestTimings.clear();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import com.akash.campsite.controllers.CampsiteRestController;
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.pojo.Booking;
+import com.akash.campsite.service.UserBookingsService;
+import com.akash.campsite.service.UserIdentityCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.akash.campsite.utility.CampsiteMessagesUtil.USER_BOOKINGS_ERROR_CURSOR;
+import static com.akash.campsite.utility.CampsiteMessagesUtil.USER_BOOKINGS_ERROR_LIMIT;
+import static com.akash.campsite.utility.CampsiteMessagesUtil.USER_ERROR_NON_EXISTENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the keyset pagination of a User's Bookings against an in-memory database.
+ */
+@RunWith(SpringRunner.class)
+public class UserBookingsPageTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private CampsiteRestController controller;
+
+    private int userId;
+
+    private final List<Integer> bookingIds = new ArrayList<>();
+
+    private LocalDate today;
+
+    @Before
+    public void setup() {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        sessionRouter = H2TestDatabase.newSessionRouter("pages", meterRegistry);
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+
+        userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+        final int otherUserId = campsiteDAO.createUser("Jane", "Doe", "janedoe@gmail.com");
+        today = LocalDate.now();
+
+        // Created out of arrival order, with another User's Booking in between
+        bookingIds.add(campsiteDAO.createBooking(userId, today.plusDays(10), today.plusDays(11)));
+        campsiteDAO.createBooking(otherUserId, today.plusDays(5), today.plusDays(6));
+        bookingIds.add(0, campsiteDAO.createBooking(userId, today.plusDays(1), today.plusDays(2)));
+        bookingIds.add(campsiteDAO.createBooking(userId, today.plusDays(20), today.plusDays(21)));
+
+        final UserIdentityCache userIdentityCache = new UserIdentityCache(campsiteDAO, meterRegistry, 100, 1000, 100);
+        userIdentityCache.rebuildFilter();
+
+        final UserBookingsService userBookingsService = new UserBookingsService();
+        ReflectionTestUtils.setField(userBookingsService, "campsiteDAO", campsiteDAO);
+        ReflectionTestUtils.setField(userBookingsService, "userIdentityCache", userIdentityCache);
+        ReflectionTestUtils.setField(userBookingsService, "objectMapper", objectMapper);
+
+        controller = new CampsiteRestController();
+        ReflectionTestUtils.setField(controller, "userBookingsService", userBookingsService);
+    }
+
+    @After
+    public void tearDown() {
+        sessionRouter.close();
+    }
+
+    @Test
+    public void pagesFollowArrivalOrder() {
+        final List<Booking> firstPage = campsiteDAO.getUserBookingsPage(userId, null, 0, 2);
+
+        final Booking last = firstPage.get(1);
+        final List<Booking> secondPage = campsiteDAO.getUserBookingsPage(userId, last.getArrivalDate(), last.getBookingId(), 2);
+
+        assertEquals(2, firstPage.size());
+        assertEquals(1, secondPage.size());
+        assertEquals(bookingIds.get(0).intValue(), firstPage.get(0).getBookingId());
+        assertEquals(bookingIds.get(1).intValue(), firstPage.get(1).getBookingId());
+        assertEquals(bookingIds.get(2).intValue(), secondPage.get(0).getBookingId());
+    }
+
+    @Test
+    public void nextCursorLeadsToTheFollowingPage() throws IOException {
+        final JsonNode firstPage = getPage(null, 2);
+        assertEquals(2, firstPage.get("bookings").size());
+        assertEquals(bookingIds.get(1).intValue(), firstPage.get("bookings").get(1).get("bookingId").asInt());
+        assertEquals(today.plusDays(10) + "_" + bookingIds.get(1), firstPage.get("next").asText());
+
+        final JsonNode secondPage = getPage(firstPage.get("next").asText(), 2);
+        assertEquals(1, secondPage.get("bookings").size());
+        assertEquals(bookingIds.get(2).intValue(), secondPage.get("bookings").get(0).get("bookingId").asInt());
+        assertTrue(secondPage.get("next").isNull());
+    }
+
+    @Test
+    public void fullLastPageHasNoNextCursor() throws IOException {
+        final JsonNode page = getPage(null, 3);
+
+        assertEquals(3, page.get("bookings").size());
+        assertTrue(page.get("next").isNull());
+    }
+
+    @Test
+    public void invalidCursorIsRejected() throws IOException {
+        for (final String cursor : new String[] {"2018-10-01", "2018-10-01_x", "tomorrow_1", "2018-10-01_1_2"}) {
+            final ResponseEntity<StreamingResponseBody> response = controller.getUserBookings("jondoe@gmail.com", cursor, null);
+
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals(USER_BOOKINGS_ERROR_CURSOR + cursor, writeBody(response));
+        }
+    }
+
+    @Test
+    public void invalidLimitIsRejected() throws IOException {
+        for (final int limit : new int[] {0, 101}) {
+            final ResponseEntity<StreamingResponseBody> response = controller.getUserBookings("jondoe@gmail.com", null, limit);
+
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals(USER_BOOKINGS_ERROR_LIMIT, writeBody(response));
+        }
+    }
+
+    @Test
+    public void unknownUserIsNotFound() throws IOException {
+        final ResponseEntity<StreamingResponseBody> response = controller.getUserBookings("nobody@gmail.com", null, null);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(USER_ERROR_NON_EXISTENT + "nobody@gmail.com", writeBody(response));
+    }
+
+    @Test
+    public void userCreatedAfterTheFilterIsFound() throws IOException {
+        // Created after the filter was built, e.g. by another instance, so the filter says the email does not exist
+        final int newUserId = campsiteDAO.createUser("Jim", "Doe", "jimdoe@gmail.com");
+        campsiteDAO.createBooking(newUserId, today.plusDays(30), today.plusDays(31));
+
+        final ResponseEntity<StreamingResponseBody> response = controller.getUserBookings("JimDoe@gmail.com", null, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, objectMapper.readTree(writeBody(response)).get("bookings").size());
+    }
+
+    private JsonNode getPage(final String after, final Integer limit) throws IOException {
+        final ResponseEntity<StreamingResponseBody> response = controller.getUserBookings("jondoe@gmail.com", after, limit);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return objectMapper.readTree(writeBody(response));
+    }
+
+    private String writeBody(final ResponseEntity<StreamingResponseBody> response) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
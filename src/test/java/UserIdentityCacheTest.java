@@ -0,0 +1,106 @@
+import com.akash.campsite.dao.CampsiteDAO;
+import com.akash.campsite.dao.SessionRouter;
+import com.akash.campsite.service.CampsiteService;
+import com.akash.campsite.service.UserIdentityCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+import static com.akash.campsite.utility.CampsiteMessagesUtil.USER_ERROR_ALREADY_EXISTS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the resolution of userIds by the identity cache against an in-memory database.
+ */
+@RunWith(SpringRunner.class)
+public class UserIdentityCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SessionRouter sessionRouter;
+
+    private CampsiteDAO campsiteDAO;
+
+    private UserIdentityCache userIdentityCache;
+
+    @Before
+    public void setup() {
+        sessionRouter = H2TestDatabase.newSessionRouter("users", meterRegistry);
+        campsiteDAO = H2TestDatabase.newDao(sessionRouter, meterRegistry);
+        userIdentityCache = new UserIdentityCache(campsiteDAO, meterRegistry, 100, 1000, 100);
+        userIdentityCache.rebuildFilter();
+    }
+
+    @After
+    public void tearDown() {
+        sessionRouter.close();
+    }
+
+    @Test
+    public void emailsAreNormalized() {
+        final int userId = userIdentityCache.findOrCreateUserId("Jon", "Doe", " JonDoe@Gmail.com ");
+
+        assertEquals(userId, userIdentityCache.findOrCreateUserId("Jon", "Doe", "jondoe@gmail.com"));
+        assertEquals(userId, campsiteDAO.searchUserByEmail("jondoe@gmail.com"));
+    }
+
+    @Test
+    public void differentEmailsAreDifferentUsers() {
+        assertNotEquals(userIdentityCache.findOrCreateUserId("Jon", "Doe", "jondoe@gmail.com"),
+                userIdentityCache.findOrCreateUserId("Jane", "Doe", "janedoe@gmail.com"));
+    }
+
+    @Test
+    public void userCreatedElsewhereIsFoundAfterUniqueViolation() {
+        // Created after the filter was built, e.g. by another instance, so the filter says the email does not exist
+        final int userId = campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+
+        assertEquals(userId, userIdentityCache.findOrCreateUserId("Jon", "Doe", "jondoe@gmail.com"));
+
+        // The creation failed and the lookup it skipped was made after all
+        assertEquals(1, meterRegistry.get("campsite.users.round-trips-saved").summary().count());
+        assertEquals(0, meterRegistry.get("campsite.users.round-trips-saved").summary().totalAmount(), 0);
+    }
+
+    @Test
+    public void skippedLookupIsCountedOnceTheUserIsCreated() {
+        userIdentityCache.findOrCreateUserId("Jon", "Doe", "jondoe@gmail.com");
+
+        assertEquals(1, meterRegistry.get("campsite.users.round-trips-saved").summary().totalAmount(), 0);
+    }
+
+    @Test
+    public void noFalsePositiveIsCountedBeforeTheFilterIsBuilt() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final UserIdentityCache unfilteredCache = new UserIdentityCache(campsiteDAO, registry, 100, 1000, 100);
+
+        assertEquals(-1, unfilteredCache.findUserId("jondoe@gmail.com"));
+        unfilteredCache.findOrCreateUserId("Jon", "Doe", "jondoe@gmail.com");
+
+        assertEquals(0, registry.get("campsite.users.filter").tag("result", "false-positive").counter().count(), 0);
+    }
+
+    @Test
+    public void userCreatedElsewhereIsReportedAsExisting() {
+        final CampsiteService campsiteService = new CampsiteService();
+        ReflectionTestUtils.setField(campsiteService, "userIdentityCache", userIdentityCache);
+
+        // Missed by the lookup, the filter was built before the User was created
+        campsiteDAO.createUser("Jon", "Doe", "jondoe@gmail.com");
+
+        try {
+            campsiteService.attemptToCreateUser("Jon", "Doe", "jondoe@gmail.com");
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals(USER_ERROR_ALREADY_EXISTS + "jondoe@gmail.com", e.getMessage());
+        }
+    }
+}
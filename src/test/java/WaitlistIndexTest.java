@@ -0,0 +1,69 @@
+import com.akash.campsite.pojo.DateRange;
+import com.akash.campsite.pojo.WaitlistEntry;
+import com.akash.campsite.service.WaitlistIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the matching of waitlist entries against runs of free nights.
+ */
+@RunWith(SpringRunner.class)
+public class WaitlistIndexTest {
+
+    private WaitlistIndex index;
+
+    private long day;
+
+    @Before
+    public void setup() {
+        index = new WaitlistIndex(3);
+        day = LocalDate.of(2030, 1, 1).toEpochDay();
+    }
+
+    @Test
+    public void oldestFittingEntryIsMatched() {
+        final WaitlistEntry tooLong = entry(1, day, day + 3);
+        final WaitlistEntry newer = entry(3, day + 1, day + 2);
+        final WaitlistEntry older = entry(2, day, day + 2);
+        index.add(tooLong);
+        index.add(newer);
+        index.add(older);
+
+        assertSame(older, index.findBestMatch(day, day + 2));
+
+        index.remove(older);
+        assertSame(newer, index.findBestMatch(day, day + 2));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void noMatchOutsideTheFreeNights() {
+        index.add(entry(1, day + 1, day + 3));
+
+        assertNull(index.findBestMatch(day, day + 2));
+        assertNull(index.findBestMatch(day + 2, day + 5));
+    }
+
+    @Test
+    public void entriesArrivingBeforeADayAreRemoved() {
+        index.add(entry(1, day, day + 1));
+        index.add(entry(2, day + 2, day + 3));
+
+        assertEquals(1, index.removeArrivingBefore(day + 1).size());
+        assertEquals(1, index.size());
+        assertNull(index.findBestMatch(day, day + 1));
+    }
+
+    private WaitlistEntry entry(final long registrationOrder, final long arrivalEpochDay, final long departureEpochDay) {
+        return new WaitlistEntry("entry-" + registrationOrder, registrationOrder, "First", "Last", "user" + registrationOrder + "@example.com",
+                new DateRange(arrivalEpochDay, departureEpochDay), false);
+    }
+}
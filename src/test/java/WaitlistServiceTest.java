@@ -0,0 +1,177 @@
+import com.akash.campsite.pojo.Availability;
+import com.akash.campsite.pojo.BookingChange;
+import com.akash.campsite.pojo.DateRange;
+import com.akash.campsite.pojo.WaitlistEntry;
+import com.akash.campsite.service.CampsiteService;
+import com.akash.campsite.service.WaitlistService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import javassist.NotFoundException;
+import org.hibernate.HibernateException;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests how the waitlist reacts to the outcome of booking the freed nights, with a mocked CampsiteService.
+ */
+@RunWith(SpringRunner.class)
+public class WaitlistServiceTest {
+
+    private CampsiteService campsiteService;
+
+    private WaitlistService waitlistService;
+
+    private LocalDate arrivalDate;
+
+    private LocalDate departureDate;
+
+    private static final String EMAIL = "jondoe@gmail.com";
+
+    private String waitlistId;
+
+    @Before
+    public void setup() {
+        campsiteService = mock(CampsiteService.class);
+        waitlistService = new WaitlistService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(waitlistService, "campsiteService", campsiteService);
+        ReflectionTestUtils.setField(waitlistService, "maxEntries", 10);
+
+        arrivalDate = LocalDate.now().plusDays(5);
+        departureDate = arrivalDate.plusDays(2);
+        when(campsiteService.parseBookingDateRange(anyString(), anyString())).thenReturn(new DateRange(arrivalDate, departureDate));
+
+        // Registered while the nights are booked
+        whenAvailabilityIsRead(false);
+        waitlistId = waitlistService.register("Jon", "Doe", EMAIL, arrivalDate.toString(), departureDate.toString(), true);
+        whenAvailabilityIsRead(true);
+    }
+
+    @Test
+    public void freedNightsAreReadFromThePrimary() throws NotFoundException {
+        when(campsiteService.attemptToCreateBooking(anyString(), anyString(), anyString(), anyString(), anyString())).thenReturn(42);
+
+        freeTheNights();
+
+        verify(campsiteService, never()).computeAvailability(any(), any(), eq(false));
+        assertEquals(WaitlistEntry.Status.BOOKED, waitlistService.getEntry(waitlistId, EMAIL).getStatus());
+        assertEquals(42, waitlistService.getEntry(waitlistId, EMAIL).getBookingId());
+    }
+
+    @Test
+    public void entryKeepsWaitingWhenTheNightsAreBookedFirst() throws NotFoundException {
+        when(campsiteService.attemptToCreateBooking(anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenThrow(new HibernateException("Create failed", new ConstraintViolationException("Night taken", new SQLException(), "PRIMARY")))
+                .thenReturn(42);
+
+        freeTheNights();
+        assertEquals(WaitlistEntry.Status.WAITING, waitlistService.getEntry(waitlistId, EMAIL).getStatus());
+
+        // The nights were taken, there is nothing to retry
+        waitlistService.retryFailedMatching();
+        assertEquals(WaitlistEntry.Status.WAITING, waitlistService.getEntry(waitlistId, EMAIL).getStatus());
+
+        freeTheNights();
+        assertEquals(WaitlistEntry.Status.BOOKED, waitlistService.getEntry(waitlistId, EMAIL).getStatus());
+    }
+
+    @Test
+    public void entryIsRetriedAfterADatabaseError() throws NotFoundException {
+        when(campsiteService.attemptToCreateBooking(anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenThrow(new HibernateException("Database unavailable"))
+                .thenReturn(42);
+
+        try {
+            freeTheNights();
+            fail();
+        }
+        catch (HibernateException e) {
+            // Expected
+        }
+        assertEquals(WaitlistEntry.Status.WAITING, waitlistService.getEntry(waitlistId, EMAIL).getStatus());
+
+        waitlistService.retryFailedMatching();
+        assertEquals(WaitlistEntry.Status.BOOKED, waitlistService.getEntry(waitlistId, EMAIL).getStatus());
+    }
+
+    @Test
+    public void entryIsKeptWhenMatchingFailsOnRegistration() throws NotFoundException {
+        when(campsiteService.attemptToCreateBooking(anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenThrow(new HibernateException("Database unavailable"))
+                .thenReturn(43);
+
+        // The nights are free already, booking them fails
+        final String otherWaitlistId = waitlistService.register("Jane", "Doe", "janedoe@gmail.com", arrivalDate.toString(), departureDate.toString(), true);
+        assertEquals(WaitlistEntry.Status.WAITING, waitlistService.getEntry(otherWaitlistId, "janedoe@gmail.com").getStatus());
+
+        // The older entry is matched first on the retry
+        when(campsiteService.attemptToCreateBooking(anyString(), anyString(), anyString(), anyString(), anyString())).thenReturn(42, 43);
+        waitlistService.retryFailedMatching();
+        assertEquals(42, waitlistService.getEntry(waitlistId, EMAIL).getBookingId());
+    }
+
+    @Test
+    public void entryIsOnlyFoundWithItsEmail() throws NotFoundException {
+        for (String email : new String[] {"janedoe@gmail.com", null}) {
+            try {
+                waitlistService.getEntry(waitlistId, email);
+                fail();
+            }
+            catch (NotFoundException e) {
+                // Expected
+            }
+
+            try {
+                waitlistService.cancel(waitlistId, email);
+                fail();
+            }
+            catch (NotFoundException e) {
+                // Expected
+            }
+        }
+
+        waitlistService.cancel(waitlistId, "JonDoe@gmail.com");
+        try {
+            waitlistService.getEntry(waitlistId, EMAIL);
+            fail();
+        }
+        catch (NotFoundException e) {
+            // Expected
+        }
+    }
+
+    private void freeTheNights() {
+        waitlistService.onBookingChange(new BookingChange(BookingChange.ChangeType.CANCELLED, 1, 1, arrivalDate, departureDate));
+    }
+
+    /**
+     * Makes every read of the availability, from the primary or from the replica, return free or booked nights.
+     */
+    private void whenAvailabilityIsRead(final boolean free) {
+        doAnswer(invocation -> {
+            final long from = invocation.<LocalDate>getArgument(0).toEpochDay();
+            final int days = (int) (invocation.<LocalDate>getArgument(1).toEpochDay() - from + 1);
+            final BitSet freeDays = new BitSet(days);
+            freeDays.set(0, days, free);
+            return new Availability(from, days, freeDays);
+        }).when(campsiteService).computeAvailability(any(), any(), anyBoolean());
+    }
+}
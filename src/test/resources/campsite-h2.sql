@@ -0,0 +1,11 @@
+CREATE TABLE REPLICA_HEARTBEAT (HEARTBEAT_ID INT NOT NULL PRIMARY KEY, BEAT_MILLIS BIGINT NOT NULL);
+INSERT INTO REPLICA_HEARTBEAT (HEARTBEAT_ID, BEAT_MILLIS) VALUES (1, 0);
+CREATE TABLE BOOKING_CHANGES (CHANGE_ID BIGINT AUTO_INCREMENT PRIMARY KEY, CHANGE_TYPE VARCHAR(10) NOT NULL, BOOKING_ID INT, USER_ID INT, ARRIVAL_DATE DATE, DEPARTURE_DATE DATE, PREVIOUS_ARRIVAL_DATE DATE, PREVIOUS_DEPARTURE_DATE DATE, CHANGED_AT BIGINT NOT NULL);
+CREATE TABLE BOOKING_OUTBOX (OUTBOX_ID BIGINT AUTO_INCREMENT PRIMARY KEY, CHANGE_TYPE VARCHAR(10) NOT NULL, BOOKING_ID INT, USER_ID INT, ARRIVAL_DATE DATE, DEPARTURE_DATE DATE, PREVIOUS_ARRIVAL_DATE DATE, PREVIOUS_DEPARTURE_DATE DATE, CHANGED_AT BIGINT NOT NULL, CLAIMED_BY VARCHAR(36), CLAIMED_UNTIL BIGINT NOT NULL DEFAULT 0);
+ALTER TABLE USERS ADD CONSTRAINT USERS_EMAIL_UNIQUE UNIQUE (EMAIL);
+ALTER TABLE BOOKINGS ADD CONSTRAINT BOOKINGS_ARRIVAL_DATE_UNIQUE UNIQUE (ARRIVAL_DATE);
+ALTER TABLE BOOKINGS ADD CONSTRAINT BOOKINGS_DEPARTURE_DATE_UNIQUE UNIQUE (DEPARTURE_DATE);
+CREATE TRIGGER DATES_INSERT_TRIGGER BEFORE INSERT ON BOOKINGS FOR EACH ROW CALL "BookingDatesTrigger";
+CREATE TRIGGER DATES_UPDATE_TRIGGER_RANGE BEFORE UPDATE ON BOOKINGS FOR EACH ROW CALL "BookingDatesTrigger";
+CREATE TABLE CAMPSITE_NIGHTS (NIGHT_DATE DATE NOT NULL PRIMARY KEY, BOOKING_ID INT NOT NULL, FOREIGN KEY (BOOKING_ID) REFERENCES BOOKINGS (BOOKING_ID));
+CREATE INDEX BOOKINGS_USER_ARRIVAL_IDX ON BOOKINGS (USER_ID, ARRIVAL_DATE, BOOKING_ID);